@@ -1,50 +1,246 @@
 package gitlet;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 import static gitlet.Utils.*;
 
 /** Represents a gitlet file object.
  *  contains 3 fields:
- *    fileName, fileContent and UID.
+ *    fileName, content and UID.
+ *  The UID of a blob only depends on its content, so that the same content is
+ *  only saved once whatever the files holding it are named; names only live
+ *  in the file maps of the commits and the staging area. The file name of a blob
+ *  is only known for the blobs created from a working file, and isn't saved.
+ *
+ *  The content of a blob is kept as bytes in memory only if it is small.
+ *  A large blob only refers to the range of a file holding its content
+ *  (the working file it was created from, or the file it was saved in),
+ *  which is streamed whenever the content is hashed, saved or checked out.
  *
  *  @author Shawn
  */
 public class Blob implements Serializable {
 
+    /** Fixed so that blobs written by older versions of gitlet can still be read. */
+    private static final long serialVersionUID = 7578754609569269433L;
+    /** Blobs larger than this many bytes are streamed instead of held in memory. */
+    static final long LARGE_BLOB_SIZE = 1 << 20;
+    private static final int BUFFER_SIZE = 1 << 16;
+
     private String fileName;
+    /** Content of the blobs written with Java serialization by older versions of gitlet. */
     private String fileContent;
     private String uid;
 
+    private transient byte[] content;
+    /** The file holding the content of a large blob, from OFFSET to OFFSET + SIZE. */
+    private transient File source;
+    private transient long offset;
+    private transient long size;
+
+    /** Construct the blob of the working file FILEOBJ, hashing its content as a stream. */
     public Blob(File fileObj) {
         fileName = fileObj.getName();
-        fileContent = readContentsAsString(fileObj);
+        source = fileObj;
+        offset = 0;
+        size = fileObj.length();
+        if (size <= LARGE_BLOB_SIZE) {
+            content = readContents(fileObj);
+            source = null;
+        }
     }
 
     public Blob(String fileName, String fileContent) {
         this.fileName = fileName;
-        this.fileContent = fileContent;
+        this.content = fileContent.getBytes(StandardCharsets.UTF_8);
+        this.size = content.length;
+    }
+
+    /** Construct a large blob whose content is the range of SOURCE
+     *  starting at OFFSET and SIZE bytes long. */
+    private Blob(String uid, File source, long offset, long size) {
+        this.uid = uid;
+        this.source = source;
+        this.offset = offset;
+        this.size = size;
+    }
+
+    /** Write the blob in the binary format of the codec, streaming its content. */
+    void encode(DataOutputStream out) throws IOException {
+        Codec.writeUid(out, getUid());
+        Codec.writeLong(out, getSize());
+        if (source == null) {
+            out.write(getContent());
+        } else {
+            transfer(Channels.newChannel(out));
+        }
+    }
+
+    /** Read a blob written by encode. Blobs written by older versions of gitlet
+     *  are NAMED: their file name follows their UID, and is skipped. */
+    static Blob decode(DataInputStream in, boolean named) throws IOException {
+        String uid = Codec.readUid(in);
+        if (named) {
+            Codec.readString(in);
+        }
+        byte[] bytes = new byte[(int) Codec.readLong(in)];
+        in.readFully(bytes);
+        Blob blob = new Blob(uid, null, 0, bytes.length);
+        blob.content = bytes;
+        return blob;
+    }
+
+    /** Read the blob saved in FILE by Utils.writeObject.
+     *  If it is large, its content is left in FILE and streamed when needed.
+     */
+    static Blob read(File file) {
+        if (file.length() > LARGE_BLOB_SIZE) {
+            try (DataInputStream in = Codec.openObject(file)) {
+                byte type = in == null ? 0 : in.readByte();
+                if (type == Codec.BLOB || type == Codec.NAMED_BLOB) {
+                    String uid = Codec.readUid(in);
+                    if (type == Codec.NAMED_BLOB) {
+                        Codec.readString(in);
+                    }
+                    long size = Codec.readLong(in);
+                    return new Blob(uid, file, file.length() - size, size);
+                }
+            } catch (IOException excp) {
+                throw error("Cannot read blob %s: %s", file.getName(), excp.getMessage());
+            }
+        }
+        return readObject(file, Blob.class);
     }
 
     String getFileName() {
         return fileName;
     }
 
+    long getSize() {
+        return source == null ? getContent().length : size;
+    }
+
+    /** Return whether the content of the blob is too large to be held in memory. */
+    boolean isLarge() {
+        return source != null;
+    }
+
+    /** Return whether the content of the blob is compared as binary data rather than
+     *  as text: if it is large, or holds a NUL byte. */
+    boolean isBinary() {
+        if (isLarge()) {
+            return true;
+        }
+        for (byte b : getContent()) {
+            if (b == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the content of the blob. Large blobs are read into memory. */
+    byte[] getContent() {
+        if (content == null) {
+            if (fileContent != null) {
+                content = fileContent.getBytes(StandardCharsets.UTF_8);
+            } else {
+                ByteBuffer buffer = ByteBuffer.allocate((int) size);
+                try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+                    while (buffer.hasRemaining() && in.read(buffer, offset + buffer.position()) >= 0) {
+                        continue;
+                    }
+                } catch (IOException excp) {
+                    throw error("Cannot read blob %s: %s", source.getName(), excp.getMessage());
+                }
+                content = buffer.array();
+            }
+        }
+        return content;
+    }
+
     String getFileContent() {
-        return fileContent;
+        return new String(getContent(), StandardCharsets.UTF_8);
     }
 
-    /* Lazy cache. */
+    /** Write the content of the blob into FILE, streaming it if the blob is large. */
+    void writeTo(File file) {
+        if (source == null) {
+            writeContents(file, getContent());
+            return;
+        }
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            transfer(out);
+        } catch (IOException excp) {
+            throw error("Cannot write %s: %s", file.getName(), excp.getMessage());
+        }
+    }
+
+    /** Stream the content of a large blob from its source into OUT. */
+    private void transfer(WritableByteChannel out) throws IOException {
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            long position = offset;
+            while (position < offset + size) {
+                position += in.transferTo(position, offset + size - position, out);
+            }
+        }
+    }
+
+    /** Return SHA1 of the content of the blob.
+     *  Lazy cache.
+     */
     String getUid() {
         if (uid == null) {
-            uid = sha1(toString());
+            try {
+                MessageDigest md = MessageDigest.getInstance("SHA-1");
+                if (source == null) {
+                    md.update(getContent());
+                } else {
+                    try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+                        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                        long position = offset;
+                        while (position < offset + size) {
+                            buffer.clear().limit((int) Math.min(BUFFER_SIZE, offset + size - position));
+                            int n = in.read(buffer, position);
+                            if (n < 0) {
+                                break;
+                            }
+                            position += n;
+                            md.update(buffer.flip());
+                        }
+                    }
+                }
+                uid = Pack.toHex(md.digest());
+            } catch (NoSuchAlgorithmException | IOException excp) {
+                throw error("Cannot hash blob %s: %s",
+                        source == null ? fileName : source.getName(), excp.getMessage());
+            }
         }
         return uid;
     }
 
+    /** Compute the UID of the blob again from its content, and return it.
+     *  Used to upgrade the blobs named by older versions of gitlet. */
+    String rehash() {
+        uid = null;
+        return getUid();
+    }
+
     @Override
     public String toString() {
-        return String.format("%s:\n%s", fileName, fileContent);
+        return String.format("%s:\n%s", fileName, getFileContent());
     }
 }
@@ -1,6 +1,8 @@
 package gitlet;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 import static gitlet.Utils.*;
 
@@ -8,11 +10,21 @@ import static gitlet.Utils.*;
  *  Because we don't need to instantiate any BlobArea objects,
  *  so all the methods in this class are static methods.
  *
+ *  Blobs are appended to the pack of the Blob folder, small revisions of
+ *  a file being stored as deltas against the previous revision.
+ *  Large blobs are never held in memory, so they are saved as separate
+ *  files, fanned out like the commits, whose content is streamed.
+ *  Blobs saved as separate files by older versions of gitlet are read the same way.
+ *
  *  @author Shawn
  */
 public class BlobArea {
 
     static final File BLOB_FOLDER = join(Repository.GITLET_DIR, "blobs");
+    /** The pack which all new blobs are written into. */
+    static final Pack PACK = new Pack(BLOB_FOLDER);
+    /** The small blobs loaded so far, weighed by the size of their content. */
+    static final ObjectCache<Blob> CACHE = new ObjectCache<>("blob", 32 << 20, b -> 64 + b.getSize());
 
     /** Initialize the Blob folder. */
     static void init() {
@@ -21,13 +33,79 @@ public class BlobArea {
 
     /** Save the blob object into the Blob folder. */
     static void save(Blob blob) {
-        File blobFile = join(BLOB_FOLDER, blob.getUid());
-        writeObject(blobFile, blob);
+        save(blob, null);
+    }
+
+    /** Save the blob object into the Blob folder,
+     *  as a delta against the blob with uid "baseUID" if it is worth it.
+     */
+    static void save(Blob blob, String baseUID) {
+        if (blob.isLarge()) {
+            File blobFile = objectFile(BLOB_FOLDER, blob.getUid());
+            if (!blobFile.exists()) {
+                blobFile.getParentFile().mkdir();
+                writeObject(blobFile, blob);
+                Journal.LOCAL.sync(blobFile);
+            }
+        } else {
+            PACK.write(blob.getUid(), Codec.encode(blob), baseUID);
+        }
+    }
+
+    /** Save the small BLOBS into the pack in a single batch, each as a delta against
+     *  the blob of the uid at the same index of BASEUIDS if it is worth it. */
+    static void save(List<Blob> blobs, List<String> baseUIDs) {
+        if (blobs.isEmpty()) {
+            return;
+        }
+        List<String> uids = new ArrayList<>();
+        List<byte[]> data = new ArrayList<>();
+        for (Blob blob : blobs) {
+            uids.add(blob.getUid());
+            data.add(Codec.encode(blob));
+        }
+        PACK.write(uids, data, baseUIDs);
+    }
+
+    /** Move the blob saved in "blobFile" into the Blob folder, as save does.
+     *  A large blob is moved without being copied.
+     */
+    static void move(File blobFile, String baseUID) {
+        Blob blob = Blob.read(blobFile);
+        if (blob.isLarge()) {
+            File target = objectFile(BLOB_FOLDER, blob.getUid());
+            target.getParentFile().mkdir();
+            if (!blobFile.renameTo(target)) {
+                blobFile.delete();
+            }
+        } else {
+            save(blob, baseUID);
+            Journal.LOCAL.delete(blobFile);
+        }
+    }
+
+    /** Return whether the Blob folder contains the blob with uid "blobUID". */
+    static boolean contains(String blobUID) {
+        return PACK.contains(blobUID) || objectFile(BLOB_FOLDER, blobUID).isFile();
     }
 
-    /** Load the blob object from the Blob folder. */
+    /** Load the blob object from the Blob folder.
+     *  Small blobs are served from the cache when they were loaded before.
+     */
     static Blob load(String blobUID) {
-        File blobFile = join(BLOB_FOLDER, blobUID);
-        return readObject(blobFile, Blob.class);
+        Blob blob = CACHE.get(blobUID);
+        if (blob != null) {
+            return blob;
+        }
+        byte[] data = PACK.read(blobUID);
+        if (data == null) {
+            blob = Blob.read(objectFile(BLOB_FOLDER, blobUID));
+        } else {
+            blob = Codec.decode(data, Blob.class);
+        }
+        if (!blob.isLarge()) {
+            CACHE.put(blobUID, blob);
+        }
+        return blob;
     }
 }
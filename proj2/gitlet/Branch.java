@@ -2,10 +2,17 @@ package gitlet;
 
 import java.io.File;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 
 import static gitlet.Utils.*;
 
 /** Represents a gitlet branch object.
+ *  The name of the current branch is read once and kept in memory,
+ *  and written through the journal into BRANCH whenever it changes;
+ *  the branch files are read and written through the journal too.
+ *  The branches fetched from a remote are named "remote/branch",
+ *  and saved in a sub-folder of BRANCH_FOLDER named after the remote.
  *
  *  @author Shawn
  */
@@ -14,6 +21,9 @@ public class Branch implements Serializable {
     static final File BRANCH_FOLDER = join(Repository.GITLET_DIR, "branches");
     static final File BRANCH = join(Repository.GITLET_DIR, "BRANCH");
 
+    /** The name of the current branch, or null if not read yet. */
+    private static String current;
+
     private String reference;
     private String name;
 
@@ -28,45 +38,71 @@ public class Branch implements Serializable {
 
     /** Write the branch into the folder "branches/". */
     void save() {
-        File branch = join(BRANCH_FOLDER, name);
-        writeContents(branch, reference);
+        Journal.LOCAL.write(join(BRANCH_FOLDER, name), reference);
     }
 
     /** Return the commit at the head of the branch. */
     static Commit load(String branchName) {
-        File branchFile = join(BRANCH_FOLDER, branchName);
-        String commitUID = readContentsAsString(branchFile);
-        File commitFile = join(Commit.COMMIT_FOLDER, commitUID);
-        return readObject(commitFile, Commit.class);
+        return Commit.load(reference(branchName));
     }
 
     /** Write the branch into the file "BRANCH".
      *  set the branch to be the current branch.
      */
     static void set(String branchName) {
-        writeContents(BRANCH, branchName);
+        Journal.LOCAL.write(BRANCH, branchName);
+        current = branchName;
     }
 
     /** Return the name of the current branch. */
     static String get() {
-        return readContentsAsString(BRANCH);
+        if (current == null) {
+            current = readContentsAsString(BRANCH);
+        }
+        return current;
+    }
+
+    /** Forget the name kept in memory, so that BRANCH is read again. */
+    static void reload() {
+        current = null;
+    }
+
+    /** Move the current branch from the commit "oldRef" to the commit "newRef",
+     *  provided it still points at "oldRef" when the command ends. */
+    static void update(String oldRef, String newRef) {
+        Journal.LOCAL.compareAndWrite(join(BRANCH_FOLDER, get()), oldRef, newRef);
+    }
+
+    /** Return the names of all the branches, including the branches fetched from remotes,
+     *  in lexicographic order. The temporary files of the branches being written,
+     *  whose names start with a dot, are skipped. */
+    static List<String> names() {
+        List<String> names = new ArrayList<>(plainFilenamesIn(BRANCH_FOLDER));
+        File[] remotes = BRANCH_FOLDER.listFiles(File::isDirectory);
+        if (remotes != null) {
+            for (File remote : remotes) {
+                for (String branchName : plainFilenamesIn(remote)) {
+                    names.add(remote.getName() + "/" + branchName);
+                }
+            }
+        }
+        names.removeIf(branchName -> branchName.startsWith(".") || branchName.contains("/."));
+        names.sort(String::compareTo);
+        return names;
     }
 
-    /** Update the reference of the current branch. */
-    static void update(String ref) {
-        String name = readContentsAsString(BRANCH);
-        File currentBranch = join(BRANCH_FOLDER, name);
-        writeContents(currentBranch, ref);
+    /** Return the uid of the commit at the head of the branch named "branchName". */
+    static String reference(String branchName) {
+        return Journal.LOCAL.readString(join(BRANCH_FOLDER, branchName));
     }
 
     /** Return whether the current repository contains the branch with name "branchName". */
     static boolean contains(String branchName) {
-        return join(BRANCH_FOLDER, branchName).exists();
+        return Journal.LOCAL.exists(join(BRANCH_FOLDER, branchName));
     }
 
     /** Remove the branch reference from the current repository. */
     static void remove(String branchName) {
-        File branchFile = join(BRANCH_FOLDER, branchName);
-        branchFile.delete();
+        Journal.LOCAL.delete(join(BRANCH_FOLDER, branchName));
     }
 }
@@ -0,0 +1,168 @@
+package gitlet;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** Represents the changed-path filters of the commit graph: for every commit, a Bloom filter
+ *  of the names of the files it changed compared with its first parent, so that the commits
+ *  which didn't change a file can be skipped without loading their trees.
+ *  A filter may claim that a commit changed a file it didn't change, never the opposite.
+ *
+ *  The filters are side files of the commit graph, indexed by the position of the commits.
+ *  They are computed for the commits which have none yet whenever the filters are opened,
+ *  and thrown away when the commit graph is rebuilt.
+ *
+ *  BLOOMINDEX archive:
+ *    header  -- "BIDX", version (int)
+ *    records -- offset of the filter in BLOOMDATA (long), length of the filter (int)
+ *
+ *  BLOOMDATA archive:
+ *    header  -- "BDAT", version (int)
+ *    filters -- BITS_PER_PATH bits per changed file, rounded up to whole bytes.
+ *               A commit which changed more than MAX_PATHS files has a single byte
+ *               with all its bits set, which matches every file.
+ *
+ *  @author Shawn
+ */
+class ChangedPaths {
+
+    static final File INDEX_FILE = join(Repository.GITLET_DIR, "BLOOMINDEX");
+    static final File DATA_FILE = join(Repository.GITLET_DIR, "BLOOMDATA");
+
+    private static final int VERSION = 1;
+    private static final byte[] INDEX_MAGIC = {'B', 'I', 'D', 'X'};
+    private static final byte[] DATA_MAGIC = {'B', 'D', 'A', 'T'};
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_SIZE = 12;
+    private static final int BITS_PER_PATH = 10;
+    private static final int HASHES = 7;
+    private static final int MAX_PATHS = 512;
+
+    private final ByteBuffer index;
+    private final byte[] data;
+
+    private ChangedPaths(ByteBuffer index, byte[] data) {
+        this.index = index;
+        this.data = data;
+    }
+
+    /** Return the filters of all the commits of the commit graph,
+     *  computing the filters of the commits which have none yet. */
+    static ChangedPaths open() {
+        update();
+        return new ChangedPaths(ByteBuffer.wrap(readContents(INDEX_FILE)), readContents(DATA_FILE));
+    }
+
+    /** Throw the filters away, for instance because the commit graph was rebuilt. */
+    static void clear() {
+        INDEX_FILE.delete();
+        DATA_FILE.delete();
+    }
+
+    /** Return whether the commit at POS in the commit graph may have changed the file
+     *  named "fileName" compared with its first parent. */
+    boolean mayHaveChanged(int pos, String fileName) {
+        int record = HEADER_SIZE + pos * RECORD_SIZE;
+        int offset = (int) index.getLong(record);
+        int length = index.getInt(record + 8);
+        if (length == 0) {
+            return false;
+        }
+        int bits = 8 * length;
+        int[] hashes = hashes(fileName);
+        for (int i = 0; i < HASHES; i += 1) {
+            int bit = Integer.remainderUnsigned(hashes[0] + i * hashes[1], bits);
+            if ((data[offset + bit / 8] & (1 << (bit % 8))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Compute the filters of the commits of the commit graph which have none yet,
+     *  appending them to the side files, the data before the index, under the repository lock.
+     *  Filters left incomplete by an interrupted update are computed again. */
+    private static void update() {
+        CommitGraph graph = Commit.GRAPH;
+        if (INDEX_FILE.exists() && INDEX_FILE.length() == HEADER_SIZE + (long) graph.size() * RECORD_SIZE) {
+            return;
+        }
+        RepositoryLock.acquire();
+        long records = INDEX_FILE.exists() ? INDEX_FILE.length() - HEADER_SIZE : 0;
+        if (records % RECORD_SIZE != 0 || records / RECORD_SIZE > graph.size()) {
+            clear();
+            records = 0;
+        }
+        int done = (int) (records / RECORD_SIZE);
+        if (done == graph.size()) {
+            return;
+        }
+        try {
+            boolean newData = !DATA_FILE.exists();
+            long offset = newData ? HEADER_SIZE : DATA_FILE.length();
+            boolean newIndex = !INDEX_FILE.exists();
+            try (DataOutputStream dataOut = new DataOutputStream(new FileOutputStream(DATA_FILE, true));
+                 DataOutputStream indexOut = new DataOutputStream(new FileOutputStream(INDEX_FILE, true))) {
+                if (newData) {
+                    dataOut.write(DATA_MAGIC);
+                    dataOut.writeInt(VERSION);
+                }
+                if (newIndex) {
+                    indexOut.write(INDEX_MAGIC);
+                    indexOut.writeInt(VERSION);
+                }
+                for (int pos = done; pos < graph.size(); pos += 1) {
+                    byte[] filter = filter(graph, pos);
+                    dataOut.write(filter);
+                    dataOut.flush();
+                    indexOut.writeLong(offset);
+                    indexOut.writeInt(filter.length);
+                    offset += filter.length;
+                }
+            }
+        } catch (IOException excp) {
+            throw error("Cannot write the changed-path filters: %s", excp.getMessage());
+        }
+    }
+
+    /** Return the filter of the files changed by the commit at POS in GRAPH. */
+    private static byte[] filter(CommitGraph graph, int pos) {
+        int parent = graph.firstParent(pos);
+        String parentTree = parent == CommitGraph.NONE ? null : Commit.load(graph.uid(parent)).getTree();
+        TreeMap<String, String> before = new TreeMap<>();
+        TreeMap<String, String> after = new TreeMap<>();
+        Tree.diff(parentTree, Commit.load(graph.uid(pos)).getTree(), before, after);
+        TreeSet<String> changed = new TreeSet<>(before.keySet());
+        changed.addAll(after.keySet());
+        changed.removeIf(fileName -> Objects.equals(before.get(fileName), after.get(fileName)));
+        if (changed.size() > MAX_PATHS) {
+            return new byte[] {(byte) 0xff};
+        }
+        byte[] filter = new byte[(changed.size() * BITS_PER_PATH + 7) / 8];
+        int bits = 8 * filter.length;
+        for (String fileName : changed) {
+            int[] hashes = hashes(fileName);
+            for (int i = 0; i < HASHES; i += 1) {
+                int bit = Integer.remainderUnsigned(hashes[0] + i * hashes[1], bits);
+                filter[bit / 8] |= (byte) (1 << (bit % 8));
+            }
+        }
+        return filter;
+    }
+
+    /** Return the two hashes of the name of a file, from which the bits of the
+     *  filters are derived by double hashing. The second one is odd. */
+    private static int[] hashes(String fileName) {
+        String hash = sha1(fileName);
+        return new int[] {Integer.parseUnsignedInt(hash.substring(0, 8), 16),
+            Integer.parseUnsignedInt(hash.substring(8, 16), 16) | 1};
+    }
+}
@@ -0,0 +1,84 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/** Writes many blobs into the working directory at once, for checkout and reset.
+ *  Blobs are loaded, decoded and written by a bounded pool of workers, so that
+ *  reading the blobs of the next files overlaps with writing the previous ones.
+ *  The queue of the pool is bounded: once it is full, the thread submitting the
+ *  files writes one itself, which keeps the number of blobs in memory bounded.
+ *  If some files cannot be written, the error of the first of them in the order
+ *  they were added is reported, once all the other files have been written.
+ *
+ *  @author Shawn
+ */
+class CheckoutWriter {
+
+    /** Number of files below which they are simply written one after another. */
+    private static final int PARALLEL_THRESHOLD = 16;
+    private static final int THREADS = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+    private static final int QUEUE_SIZE = 4 * THREADS;
+
+    private final List<String> fileNames = new ArrayList<>();
+    private final List<String> fileRefs = new ArrayList<>();
+
+    /** Schedule the blob with uid "fileRef" to be written into the working file "fileName". */
+    void add(String fileName, String fileRef) {
+        fileNames.add(fileName);
+        fileRefs.add(fileRef);
+    }
+
+    /** Write all the scheduled files. */
+    void run() {
+        if (fileNames.size() < PARALLEL_THRESHOLD) {
+            for (int i = 0; i < fileNames.size(); i += 1) {
+                write(fileNames.get(i), fileRefs.get(i));
+            }
+            return;
+        }
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_SIZE), new ThreadPoolExecutor.CallerRunsPolicy());
+        List<Future<?>> results = new ArrayList<>();
+        for (int i = 0; i < fileNames.size(); i += 1) {
+            String fileName = fileNames.get(i);
+            String fileRef = fileRefs.get(i);
+            results.add(pool.submit(() -> write(fileName, fileRef)));
+        }
+        pool.shutdown();
+
+        RuntimeException firstError = null;
+        for (int i = 0; i < results.size(); i += 1) {
+            try {
+                results.get(i).get();
+            } catch (ExecutionException excp) {
+                if (firstError == null) {
+                    firstError = error("Cannot check out %s: %s", fileNames.get(i),
+                            excp.getCause().getMessage());
+                }
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+                throw error("Interrupted while checking out %s.", fileNames.get(i));
+            }
+        }
+        if (firstError != null) {
+            throw firstError;
+        }
+    }
+
+    /** Load the blob with uid "fileRef" and write it into the working file "fileName". */
+    private static void write(String fileName, String fileRef) {
+        File file = join(Repository.CWD, fileName);
+        BlobArea.load(fileRef).writeTo(file);
+        StatCache.record(file, fileRef);
+    }
+}
@@ -0,0 +1,325 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/** A compact binary format for the objects gitlet saves on disk:
+ *  commits, trees, blobs, and the maps and sets of the staging area.
+ *  Objects of any other type are written with Java serialization.
+ *
+ *  Every encoded object starts with a header:
+ *    magic ("GL", 2 bytes), version of the codec (byte), type of the object (byte)
+ *  Objects written with Java serialization by older versions of gitlet start
+ *  with the serialization magic 0xACED instead, and are still read.
+ *
+ *  Objects written into files which are at least COMPRESSION_THRESHOLD bytes long
+ *  are compressed with zlib if it makes them smaller. The type of a compressed
+ *  object has its COMPRESSED bit set, and is followed by the length of the
+ *  object once inflated (varint). Large blobs are never compressed, since their
+ *  content is read in place. Objects encoded into bytes, for the pack, aren't
+ *  compressed either, the pack compressing them itself after computing deltas.
+ *
+ *  @author Shawn
+ */
+class Codec {
+
+    private static final byte[] MAGIC = {'G', 'L'};
+    private static final byte VERSION = 1;
+    private static final int HEADER_SIZE = 4;
+
+    /** Commits written by older versions of gitlet, which saved their whole file map. */
+    private static final byte FLAT_COMMIT = 1;
+    /** Blobs written by older versions of gitlet, which saved their file name. */
+    static final byte NAMED_BLOB = 2;
+    private static final byte STRING_MAP = 3;
+    private static final byte STRING_SET = 4;
+    static final byte BLOB = 5;
+    private static final byte TREE = 6;
+    private static final byte COMMIT = 7;
+    /** Bit of the type of the object set when the object is compressed. */
+    private static final byte COMPRESSED = (byte) 0x80;
+
+    /** Objects smaller than this many bytes are not worth compressing. */
+    static final int COMPRESSION_THRESHOLD = 512;
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(Deflater::new);
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    /** Return the bytes of OBJ in the binary format, uncompressed,
+     *  or its Java serialization if its type isn't supported. */
+    static byte[] encode(Serializable obj) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        encode(obj, bytes, false);
+        return bytes.toByteArray();
+    }
+
+    /** Write OBJ into STREAM in the binary format, compressed if it is worth it,
+     *  or its Java serialization if its type isn't supported.
+     *  The content of large blobs is streamed. */
+    static void encode(Serializable obj, OutputStream stream) {
+        encode(obj, stream, true);
+    }
+
+    private static void encode(Serializable obj, OutputStream stream, boolean compress) {
+        try {
+            DataOutputStream out = new DataOutputStream(stream);
+            byte type = typeOf(obj);
+            if (type == 0) {
+                out.write(Utils.serialize(obj));
+            } else if (!compress || (obj instanceof Blob && ((Blob) obj).isLarge())) {
+                writeHeader(out, type);
+                encodeBody(obj, out);
+            } else {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                encodeBody(obj, new DataOutputStream(body));
+                byte[] bytes = body.toByteArray();
+                byte[] deflated = bytes.length < COMPRESSION_THRESHOLD ? null : deflate(bytes);
+                if (deflated == null) {
+                    writeHeader(out, type);
+                    out.write(bytes);
+                } else {
+                    writeHeader(out, (byte) (type | COMPRESSED));
+                    writeInt(out, bytes.length);
+                    out.write(deflated);
+                }
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw Utils.error("Internal error encoding %s.", obj.getClass().getSimpleName());
+        }
+    }
+
+    /** Return the type of OBJ in the binary format, or 0 if it isn't supported. */
+    private static byte typeOf(Serializable obj) {
+        if (obj instanceof Commit) {
+            return ((Commit) obj).isFlat() ? FLAT_COMMIT : COMMIT;
+        } else if (obj instanceof Blob) {
+            return BLOB;
+        } else if (obj instanceof Tree) {
+            return TREE;
+        } else if (obj instanceof TreeMap) {
+            return STRING_MAP;
+        } else if (obj instanceof TreeSet) {
+            return STRING_SET;
+        } else {
+            return 0;
+        }
+    }
+
+    /** Write OBJ, of a type supported by the binary format, without its header. */
+    @SuppressWarnings("unchecked")
+    private static void encodeBody(Serializable obj, DataOutputStream out) throws IOException {
+        if (obj instanceof Commit) {
+            ((Commit) obj).encode(out);
+        } else if (obj instanceof Blob) {
+            ((Blob) obj).encode(out);
+        } else if (obj instanceof Tree) {
+            ((Tree) obj).encode(out);
+        } else if (obj instanceof TreeMap) {
+            TreeMap<String, String> map = (TreeMap<String, String>) obj;
+            writeInt(out, map.size());
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                writeString(out, entry.getKey());
+                writeString(out, entry.getValue());
+            }
+        } else {
+            TreeSet<String> set = (TreeSet<String>) obj;
+            writeInt(out, set.size());
+            for (String s : set) {
+                writeString(out, s);
+            }
+        }
+    }
+
+    /** Return the object decoded from DATA, casting it to EXPECTEDCLASS.
+     *  Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T decode(byte[] data, Class<T> expectedClass) {
+        if (!isEncoded(data)) {
+            return Utils.deserialize(data, expectedClass);
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            in.skipBytes(HEADER_SIZE - 1);
+            byte type = in.readByte();
+            if ((type & COMPRESSED) != 0) {
+                int size = readInt(in);
+                int offset = data.length - in.available();
+                in = new DataInputStream(new ByteArrayInputStream(
+                        inflate(data, offset, data.length - offset, size)));
+                type &= ~COMPRESSED;
+            }
+            Object result;
+            switch (type) {
+                case COMMIT -> result = Commit.decode(in, false);
+                case FLAT_COMMIT -> result = Commit.decode(in, true);
+                case TREE -> result = Tree.decode(in);
+                case BLOB -> result = Blob.decode(in, false);
+                case NAMED_BLOB -> result = Blob.decode(in, true);
+                case STRING_MAP -> {
+                    TreeMap<String, String> map = new TreeMap<>();
+                    for (int n = readInt(in); n > 0; n -= 1) {
+                        map.put(readString(in), readString(in));
+                    }
+                    result = map;
+                }
+                case STRING_SET -> {
+                    TreeSet<String> set = new TreeSet<>();
+                    for (int n = readInt(in); n > 0; n -= 1) {
+                        set.add(readString(in));
+                    }
+                    result = set;
+                }
+                default -> throw new IllegalArgumentException("unknown object type " + type);
+            }
+            return expectedClass.cast(result);
+        } catch (IOException | ClassCastException | DataFormatException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return a stream over the object saved in FILE by Utils.writeObject,
+     *  positioned at the type of the object, the last byte of its header.
+     *  Return null if the object isn't in the binary format. */
+    static DataInputStream openObject(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        byte[] header = new byte[HEADER_SIZE - 1];
+        in.readFully(header);
+        if (header[0] != MAGIC[0] || header[1] != MAGIC[1] || header[2] != VERSION) {
+            in.close();
+            return null;
+        }
+        return in;
+    }
+
+    /** Return whether DATA was written in the binary format (rather than
+     *  with Java serialization). */
+    static boolean isEncoded(byte[] data) {
+        return data.length >= HEADER_SIZE && data[0] == MAGIC[0] && data[1] == MAGIC[1]
+                && data[2] == VERSION;
+    }
+
+    private static void writeHeader(DataOutputStream out, byte type) throws IOException {
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(type);
+    }
+
+    /* COMPRESSION */
+
+    /** Return DATA compressed with zlib, or null if that doesn't make it smaller. */
+    static byte[] deflate(byte[] data) {
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] deflated = new byte[data.length];
+        int length = 0;
+        while (!deflater.finished() && length < deflated.length) {
+            length += deflater.deflate(deflated, length, deflated.length - length);
+        }
+        return deflater.finished() ? Arrays.copyOf(deflated, length) : null;
+    }
+
+    /** Return the SIZE bytes compressed by deflate into DATA[OFFSET..OFFSET + LENGTH). */
+    static byte[] inflate(byte[] data, int offset, int length, int size) throws DataFormatException {
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(data, offset, length);
+        byte[] inflated = new byte[size];
+        int n = 0;
+        while (n < size) {
+            int k = inflater.inflate(inflated, n, size - n);
+            if (k == 0 && (inflater.finished() || inflater.needsInput())) {
+                throw new DataFormatException("truncated compressed object");
+            }
+            n += k;
+        }
+        return inflated;
+    }
+
+    /* PRIMITIVES */
+
+    /** Write the non-negative VALUE as a varint. */
+    static void writeInt(DataOutputStream out, int value) throws IOException {
+        writeLong(out, value);
+    }
+
+    static int readInt(DataInputStream in) throws IOException {
+        return (int) readLong(in);
+    }
+
+    /** Write the non-negative VALUE as a varint, like writeInt. */
+    static void writeLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readLong(DataInputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /** Write S as its UTF-8 length followed by its UTF-8 bytes. */
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        writeBytes(out, s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        writeInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readInt(in)];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /** Write the UID, which may be null, as a presence byte followed by its 20 bytes. */
+    static void writeUid(DataOutputStream out, String uid) throws IOException {
+        if (uid == null) {
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            out.write(Pack.toBytes(uid));
+        }
+    }
+
+    static String readUid(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        byte[] uid = new byte[20];
+        in.readFully(uid);
+        return Pack.toHex(uid);
+    }
+}
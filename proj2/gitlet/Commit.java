@@ -1,25 +1,27 @@
 package gitlet;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.TreeMap;
-import java.util.TreeSet;
-import java.util.ArrayDeque;
 
 import static gitlet.Utils.*;
 
 /** Represents a gitlet commit object.
  *  Commit class is a composition idea of both region(folder) "commits/" and commit object itself.
+ *  Commits are fanned out into sub-folders named after the first two characters of
+ *  their UID, so that an abbreviated commitUID is resolved by listing a single small folder.
+ *  The files of a commit are held by a trie of tree objects, of which the commit only
+ *  saves the uid of the root; commits written by older versions of gitlet saved their
+ *  whole file map instead, and are "flat" until the repository is upgraded.
  *  COMMIT_FOLDER archive:
  *  --commits/
- *       |--3b7b0e38bd1382fddcadddf37a78e45ae6669462
- *       |--3c4a7f4d8227d924cfbd81d083dcd408921fd7fc
- *
- *  This class can be optimized to support abbr. commitUID search by reorganize the
- *  object storage archive like the example showed below:
- *  --commits/
  *       |--3b/
  *           |--7b0e38bd1382fddcadddf37a78e45ae6669462
  *       |--3c/
@@ -29,14 +31,25 @@ import static gitlet.Utils.*;
  */
 public class Commit implements Serializable {
 
+    /** Fixed so that commits written by older versions of gitlet can still be read. */
+    private static final long serialVersionUID = 3900200158878892925L;
+
     /** Folder that commits live in. */
     static final File COMMIT_FOLDER = join(Repository.GITLET_DIR, "commits");
+    /** The commit graph of the repository. */
+    static final CommitGraph GRAPH = new CommitGraph(Repository.GITLET_DIR);
+    /** The commits loaded so far, weighed by a rough estimate of their size in bytes. */
+    static final ObjectCache<Commit> CACHE = new ObjectCache<>("commit", 8 << 20,
+            c -> 128 + 2L * c.message.length() + (c.files == null ? 0 : 192L * c.files.size()));
 
     private String message;
     private Date timestamp;
     private String firstParent;
     private String secondParent;
+    /** The file map of a flat commit, or null. */
     private TreeMap<String, String> files;
+    /** The uid of the root of the tree of the files, or null for a flat commit. */
+    private String tree;
     private String uid;
 
     /** Construct the initial commit. */
@@ -45,7 +58,7 @@ public class Commit implements Serializable {
         timestamp = new Date(0);
         firstParent = null;
         secondParent = null;
-        files = new TreeMap<>();
+        tree = Tree.build(new TreeMap<>());
     }
 
     /** Construct a child commit of o. */
@@ -54,17 +67,7 @@ public class Commit implements Serializable {
         timestamp = new Date();
         firstParent = o.getUid();
         secondParent = null;
-        files = o.files;
-
-        TreeMap<String, String> additionMap = StagingArea.AdditionArea.getMap();
-        for (String fileName : additionMap.keySet()) {
-            files.put(fileName, additionMap.get(fileName));
-        }
-
-        TreeSet<String> removalSet = StagingArea.RemovalArea.getSet();
-        for (String fileName : removalSet) {
-            files.remove(fileName);
-        }
+        tree = Tree.update(o.tree, stagedChanges());
     }
 
     /** Construct a merged commit. */
@@ -73,17 +76,77 @@ public class Commit implements Serializable {
         timestamp = new Date();
         firstParent = firstP.getUid();
         secondParent = secondP.getUid();
-        files = firstP.files;
+        tree = Tree.update(firstP.tree, stagedChanges());
+    }
+
+    /** Construct a commit decoded by the codec. */
+    private Commit(String message, Date timestamp, String firstParent, String secondParent,
+                   TreeMap<String, String> files, String tree, String uid) {
+        this.message = message;
+        this.timestamp = timestamp;
+        this.firstParent = firstParent;
+        this.secondParent = secondParent;
+        this.files = files;
+        this.tree = tree;
+        this.uid = uid;
+    }
+
+    /** Return the changes of the staging area, mapping the files staged for addition
+     *  to their blob uids and the files staged for removal to null. */
+    private static TreeMap<String, String> stagedChanges() {
+        TreeMap<String, String> changes = new TreeMap<>(StagingArea.AdditionArea.getMap());
+        for (String fileName : StagingArea.RemovalArea.getSet()) {
+            changes.put(fileName, null);
+        }
+        return changes;
+    }
 
-        TreeMap<String, String> additionMap = StagingArea.AdditionArea.getMap();
-        for (String fileName : additionMap.keySet()) {
-            files.put(fileName, additionMap.get(fileName));
+    /** Write the commit in the binary format of the codec. */
+    void encode(DataOutputStream out) throws IOException {
+        Codec.writeUid(out, getUid());
+        Codec.writeString(out, message);
+        out.writeLong(timestamp.getTime());
+        Codec.writeUid(out, firstParent);
+        Codec.writeUid(out, secondParent);
+        if (isFlat()) {
+            Codec.writeInt(out, files.size());
+            for (String fileName : files.keySet()) {
+                Codec.writeString(out, fileName);
+                Codec.writeUid(out, files.get(fileName));
+            }
+        } else {
+            Codec.writeUid(out, tree);
         }
+    }
 
-        TreeSet<String> removalSet = StagingArea.RemovalArea.getSet();
-        for (String fileName : removalSet) {
-            files.remove(fileName);
+    /** Read a commit written by encode, which saved its whole file map if it is FLAT. */
+    static Commit decode(DataInputStream in, boolean flat) throws IOException {
+        String uid = Codec.readUid(in);
+        String message = Codec.readString(in);
+        Date timestamp = new Date(in.readLong());
+        String firstParent = Codec.readUid(in);
+        String secondParent = Codec.readUid(in);
+        if (!flat) {
+            String tree = Codec.readUid(in);
+            return new Commit(message, timestamp, firstParent, secondParent, null, tree, uid);
+        }
+        TreeMap<String, String> files = new TreeMap<>();
+        for (int n = Codec.readInt(in); n > 0; n -= 1) {
+            files.put(Codec.readString(in), Codec.readUid(in));
         }
+        return new Commit(message, timestamp, firstParent, secondParent, files, null, uid);
+    }
+
+    /** Return whether the commit saved its whole file map instead of a tree. */
+    boolean isFlat() {
+        return tree == null;
+    }
+
+    /** Save the file map of a flat commit as a tree, which the commit then refers to.
+     *  The uid of the commit is kept. */
+    void buildTree() {
+        tree = Tree.build(files);
+        files = null;
     }
 
     String getMessage() {
@@ -94,6 +157,14 @@ public class Commit implements Serializable {
         return timestamp;
     }
 
+    String getFirstParent() {
+        return firstParent;
+    }
+
+    String getSecondParent() {
+        return secondParent;
+    }
+
     /** Return the first parent commit of this commit.
      *  If this commit has no parent, returns null.
      */
@@ -101,23 +172,34 @@ public class Commit implements Serializable {
         if (firstParent == null) {
             return null;
         } else {
-            File parentCommit = join(COMMIT_FOLDER, firstParent);
-            return readObject(parentCommit, Commit.class);
+            return load(firstParent);
         }
     }
 
+    /** Return the uid of the root of the tree of the files, or null for a flat commit. */
+    String getTree() {
+        return tree;
+    }
+
+    /** Return all the files of the commit, mapped to their blob uids. */
     TreeMap<String, String> getFiles() {
-        return files;
+        return isFlat() ? files : Tree.files(tree);
+    }
+
+    /** Replace every file reference of a flat commit which is a key of UIDS
+     *  by the matching value. The uid of the commit is kept. */
+    void replaceFileReferences(Map<String, String> uids) {
+        files.replaceAll((fileName, fileRef) -> uids.getOrDefault(fileRef, fileRef));
     }
 
     /** Return whether the commit contains the file with name "fileName". */
     boolean containsFile(String fileName) {
-        return files.containsKey(fileName);
+        return getFileReference(fileName) != null;
     }
 
-    /** Return the UID of the file saved in the commit. */
+    /** Return the UID of the file saved in the commit, or null if it doesn't contain it. */
     String getFileReference(String fileName) {
-        return files.get(fileName);
+        return isFlat() ? files.get(fileName) : Tree.get(tree, fileName);
     }
 
     /** Return the content of the file saved in the commit. */
@@ -141,36 +223,74 @@ public class Commit implements Serializable {
         return uid;
     }
 
-    /** Save the commit. */
+    /** Save the commit and add it to the commit graph and the message index. */
     void save() {
-        File commit = join(COMMIT_FOLDER, getUid());
-        writeObject(commit, this);
+        Journal.LOCAL.saveObject(objectFile(COMMIT_FOLDER, getUid()), this);
+        GRAPH.add(this);
+        MessageIndex.add(message, getUid());
     }
 
-    /** Load the commit with given uid.
+    /** Load the commit with given uid, which may be abbreviated.
      *  If the commit doesn't exist, return null.
+     *  Commits are served from the cache when they were loaded before.
      */
     static Commit load(String commitUID) {
-        File commitFile = join(COMMIT_FOLDER, commitUID);
-        if (!commitFile.exists()) {
+        if (commitUID.length() == UID_LENGTH) {
+            Commit commit = CACHE.get(commitUID);
+            if (commit != null) {
+                return commit;
+            }
+        }
+        String uid = resolve(commitUID);
+        if (uid == null) {
             return null;
-        } else {
-            return readObject(commitFile, Commit.class);
         }
+        Commit commit = readObject(objectFile(COMMIT_FOLDER, uid), Commit.class);
+        CACHE.put(uid, commit);
+        return commit;
+    }
+
+    /** Return the complete uid of the commit whose uid starts with "commitUID".
+     *  If no commit matches, return null.
+     *  If more than one commit matches, print the error message and exit.
+     */
+    static String resolve(String commitUID) {
+        List<String> uids = objectUidsWithPrefix(COMMIT_FOLDER, commitUID);
+        if (uids.isEmpty()) {
+            return null;
+        } else if (uids.size() > 1) {
+            throw error("Ambiguous commit id.");
+        }
+        return uids.get(0);
+    }
+
+    /** Return the uids of all the commits in the repository. */
+    static List<String> uids() {
+        return objectUidsIn(COMMIT_FOLDER);
     }
 
     @Override
     public String toString() {
-        String s = String.format("message: %s\ntimestamp: %s\nparent: %s\nfiles:\n",
+        String s = String.format("message: %s\ntimestamp: %s\nparent: %s\n",
                 message, timestamp.toString(), firstParent);
+        if (!isFlat()) {
+            return s + String.format("merged parent: %s\ntree: %s\n", secondParent, tree);
+        }
+        StringBuilder b = new StringBuilder(s).append("files:\n");
         for (String fileName : files.keySet()) {
-            s += String.format("|--%s -> %s\n", fileName, files.get(fileName));
+            b.append(String.format("|--%s -> %s\n", fileName, files.get(fileName)));
         }
-        return s;
+        return b.toString();
     }
 
     /** Return the log information of the commit. */
     String logInfo() {
+        return logInfo(uid, firstParent, secondParent, timestamp, message);
+    }
+
+    /** Return the log information of a commit with the given properties. */
+    static String logInfo(String uid, String firstParent, String secondParent,
+                          Date timestamp, String message) {
         String t = String.format(Locale.US, "%1$ta %1$tb %1$te %1$tT %1$tY %1$tz", timestamp);
         if (secondParent == null) {
             return String.format("===\ncommit %s\nDate: %s\n%s\n\n", uid, t, message);
@@ -180,39 +300,12 @@ public class Commit implements Serializable {
         }
     }
 
-    /** Find all the ancestors of the given commit and saved in the HashSet. */
-    static void findAncestors(String commitUID, TreeSet<String> ancestors) {
-        if (commitUID != null) {
-            Commit commit = load(commitUID);
-            ancestors.add(commitUID);
-            findAncestors(commit.firstParent, ancestors);
-            findAncestors(commit.secondParent, ancestors);
-        }
-    }
-
-    /** Return the uid of the split point of commit 1 and commit 2.
+    /** Return the uid of the split point of commit 1 and commit 2,
+     *  found by a merge-base walk of the commit graph.
      *  Return null if the split point doesn't exist.
-     *  Use BFS to determine the closest common ancestor.
      */
     static String findSplitPoint(String uid1, String uid2) {
-        TreeSet<String> ancestorsOfCommit1 = new TreeSet<>();
-        findAncestors(uid1, ancestorsOfCommit1);
-        ArrayDeque<String> ancestorsOfCommit2 = new ArrayDeque<>();
-        ancestorsOfCommit2.addLast(uid2);
-        while (!ancestorsOfCommit2.isEmpty()) {
-            String ancestor = ancestorsOfCommit2.removeFirst();
-            if (ancestorsOfCommit1.contains(ancestor)) {
-                return ancestor;
-            } else {
-                Commit commit = Commit.load(ancestor);
-                if (commit.firstParent != null) {
-                    ancestorsOfCommit2.addLast(commit.firstParent);
-                }
-                if (commit.secondParent != null) {
-                    ancestorsOfCommit2.addLast(commit.secondParent);
-                }
-            }
-        }
-        return null;
+        int pos = GRAPH.mergeBase(GRAPH.position(uid1), GRAPH.position(uid2));
+        return pos == CommitGraph.NONE ? null : GRAPH.uid(pos);
     }
 }
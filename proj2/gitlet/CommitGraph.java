@@ -0,0 +1,383 @@
+package gitlet;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static gitlet.Utils.*;
+
+/** Represents the commit graph: a compact index of the history of the repository
+ *  which lets log, global-log, find and ancestry queries walk the commits
+ *  without deserializing any commit object.
+ *  Every commit is saved as a fixed-size record, its parents being referenced
+ *  by their position in the graph. Parents are always added before their children.
+ *
+ *  COMMITGRAPH archive:
+ *    header  -- "CGPH", version (int)
+ *    records -- UID (20 bytes), first parent (int), second parent (int),
+ *               timestamp (long), generation (int),
+ *               offset of the message (long), length of the message (int)
+ *
+ *  COMMITMESSAGES archive:
+ *    the UTF-8 messages of all the commits, one after another.
+ *
+ *  The generation of a commit is one more than the largest generation of its parents,
+ *  the initial commit being of generation 1.
+ *
+ *  @author Shawn
+ */
+class CommitGraph {
+
+    private static final int VERSION = 1;
+    private static final byte[] MAGIC = {'C', 'G', 'P', 'H'};
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_SIZE = 52;
+    /** Position of a parent which doesn't exist. */
+    static final int NONE = -1;
+    /** Marks of the commits reachable from either side of a merge-base walk. */
+    private static final int SIDE1 = 1;
+    private static final int SIDE2 = 2;
+
+    private final File graphFile;
+    private final File messagesFile;
+    /** Lazily mapped contents of the graph files. */
+    private ByteBuffer records;
+    private ByteBuffer messages;
+    /** Lazily built map from the uid of a commit to its position. */
+    private HashMap<String, Integer> positions;
+    /** Whether commits were added since the graph was last forced onto the disk. */
+    private boolean unsynced;
+
+    /** The commit graph stored in FOLDER. */
+    CommitGraph(File folder) {
+        graphFile = join(folder, "COMMITGRAPH");
+        messagesFile = join(folder, "COMMITMESSAGES");
+    }
+
+    /** Return whether the graph files exist. */
+    boolean exists() {
+        return graphFile.exists();
+    }
+
+    File getGraphFile() {
+        return graphFile;
+    }
+
+    /** Return the number of commits in the graph. */
+    int size() {
+        return (records().limit() - HEADER_SIZE) / RECORD_SIZE;
+    }
+
+    /** Return the position of the commit with the given uid,
+     *  or NONE if it isn't in the graph. */
+    int position(String uid) {
+        if (positions == null) {
+            positions = new HashMap<>();
+            for (int pos = 0; pos < size(); pos += 1) {
+                positions.put(uid(pos), pos);
+            }
+        }
+        return positions.getOrDefault(uid, NONE);
+    }
+
+    /** Return whether the commit with the given uid is in the graph. */
+    boolean contains(String uid) {
+        return position(uid) != NONE;
+    }
+
+    String uid(int pos) {
+        byte[] uid = new byte[20];
+        records().get(offset(pos), uid);
+        return Pack.toHex(uid);
+    }
+
+    int firstParent(int pos) {
+        return records().getInt(offset(pos) + 20);
+    }
+
+    int secondParent(int pos) {
+        return records().getInt(offset(pos) + 24);
+    }
+
+    long timestamp(int pos) {
+        return records().getLong(offset(pos) + 28);
+    }
+
+    int generation(int pos) {
+        return records().getInt(offset(pos) + 36);
+    }
+
+    String message(int pos) {
+        long start = records().getLong(offset(pos) + 40);
+        int length = records().getInt(offset(pos) + 48);
+        byte[] message = new byte[length];
+        messages().get((int) start, message);
+        return new String(message, StandardCharsets.UTF_8);
+    }
+
+    /** Return the log information of the commit at POS. */
+    String logInfo(int pos) {
+        String secondParentUID = secondParent(pos) == NONE ? null : uid(secondParent(pos));
+        String firstParentUID = firstParent(pos) == NONE ? null : uid(firstParent(pos));
+        return Commit.logInfo(uid(pos), firstParentUID, secondParentUID,
+                new Date(timestamp(pos)), message(pos));
+    }
+
+    /** Return the position of a best common ancestor of the commits at POS1 and POS2:
+     *  a common ancestor which isn't an ancestor of another common ancestor,
+     *  or NONE if they have no common ancestor. A commit is its own ancestor.
+     *  Both histories are walked at once, newest generation first, marking every commit
+     *  with the sides it is reachable from. All the children of a commit are of a newer
+     *  generation, so its marks are complete when it is visited, and the first commit
+     *  visited with both marks is a common ancestor of the newest generation: the walk
+     *  stops there, having only visited commits at least as new as the merge base.
+     */
+    int mergeBase(int pos1, int pos2) {
+        HashMap<Integer, Integer> sides = new HashMap<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>((a, b) -> generation(a) != generation(b)
+                ? Integer.compare(generation(b), generation(a)) : Integer.compare(b, a));
+        sides.merge(pos1, SIDE1, (x, y) -> x | y);
+        sides.merge(pos2, SIDE2, (x, y) -> x | y);
+        queue.add(pos1);
+        queue.add(pos2);
+        while (!queue.isEmpty()) {
+            int pos = queue.poll();
+            int mark = sides.get(pos);
+            if (mark == (SIDE1 | SIDE2)) {
+                return pos;
+            }
+            for (int parent : new int[] {firstParent(pos), secondParent(pos)}) {
+                if (parent == NONE) {
+                    continue;
+                }
+                int parentMark = sides.getOrDefault(parent, 0);
+                if ((parentMark | mark) != parentMark) {
+                    sides.put(parent, parentMark | mark);
+                    queue.add(parent);
+                }
+            }
+        }
+        return NONE;
+    }
+
+    /** Add the commit to the graph. Its parents must already be in the graph.
+     *  The commits appended by other processes since the graph was mapped are read
+     *  first, since the parents may be among them. */
+    void add(Commit commit) {
+        catchUp();
+        if (contains(commit.getUid())) {
+            return;
+        }
+        int first = parentPosition(commit.getFirstParent(), commit);
+        int second = parentPosition(commit.getSecondParent(), commit);
+        int generation = 1;
+        for (int parent : new int[] {first, second}) {
+            if (parent != NONE) {
+                generation = Math.max(generation, generation(parent) + 1);
+            }
+        }
+        byte[] message = commit.getMessage().getBytes(StandardCharsets.UTF_8);
+
+        try {
+            long messageOffset = messagesFile.length();
+            try (FileOutputStream out = new FileOutputStream(messagesFile, true)) {
+                out.write(message);
+            }
+            boolean newGraph = !graphFile.exists();
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(graphFile, true))) {
+                if (newGraph) {
+                    out.write(MAGIC);
+                    out.writeInt(VERSION);
+                }
+                out.write(Pack.toBytes(commit.getUid()));
+                out.writeInt(first);
+                out.writeInt(second);
+                out.writeLong(commit.getTimestamp().getTime());
+                out.writeInt(generation);
+                out.writeLong(messageOffset);
+                out.writeInt(message.length);
+            }
+        } catch (IOException excp) {
+            throw error("Cannot write to the commit graph: %s", excp.getMessage());
+        }
+        int pos = size();
+        records = null;
+        messages = null;
+        positions.put(commit.getUid(), pos);
+        unsynced = true;
+    }
+
+    /** Force the commits added since the last call onto the disk, the messages before
+     *  the records, and return the number of files forced. */
+    int sync() {
+        if (!unsynced) {
+            return 0;
+        }
+        for (File file : files()) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.force(false);
+            } catch (IOException excp) {
+                throw error("Cannot sync the commit graph: %s", excp.getMessage());
+            }
+        }
+        unsynced = false;
+        return 2;
+    }
+
+    /** Return the position of the parent with uid "parentUID" of COMMIT,
+     *  or NONE if it has no such parent. */
+    private int parentPosition(String parentUID, Commit commit) {
+        if (parentUID == null) {
+            return NONE;
+        }
+        int pos = position(parentUID);
+        if (pos == NONE) {
+            throw error("Parent %s of commit %s is not in the commit graph.", parentUID, commit.getUid());
+        }
+        return pos;
+    }
+
+    /** Map the graph files again if other processes appended commits to them since
+     *  they were mapped, adding the new commits to the positions, which may be ahead
+     *  of the mapping when the graph was left unmapped by add. */
+    private void catchUp() {
+        if (records != null) {
+            long length = graphFile.exists() ? graphFile.length() : HEADER_SIZE;
+            if (length == records.limit()) {
+                return;
+            }
+            records = null;
+            messages = null;
+        }
+        if (positions == null) {
+            return;
+        }
+        int known = positions.size();
+        if (size() < known) {
+            positions = null;
+            return;
+        }
+        for (int pos = known; pos < size(); pos += 1) {
+            positions.put(uid(pos), pos);
+        }
+    }
+
+    /** Return whether the graph file ends with a record half written by a process
+     *  which crashed while appending it. */
+    boolean isTorn() {
+        return graphFile.exists() && wholeLength(graphFile.length()) != graphFile.length();
+    }
+
+    /** Cut the record left half written at the end of the graph file, under the repository
+     *  lock, so that the next record is appended right after the last whole one.
+     *  A message left behind in the messages file is harmless, since every record holds
+     *  the offset of its message. */
+    void repair() {
+        if (!isTorn()) {
+            return;
+        }
+        long length = wholeLength(graphFile.length());
+        if (length == 0) {
+            graphFile.delete();
+        } else {
+            try (FileChannel channel = FileChannel.open(graphFile.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(length);
+            } catch (IOException excp) {
+                throw error("Cannot repair the commit graph: %s", excp.getMessage());
+            }
+        }
+        close();
+    }
+
+    /** Return the length of the header and the whole records of a graph file
+     *  LENGTH bytes long, or 0 if even the header is incomplete. */
+    private static long wholeLength(long length) {
+        if (length < HEADER_SIZE) {
+            return 0;
+        }
+        return HEADER_SIZE + (length - HEADER_SIZE) / RECORD_SIZE * RECORD_SIZE;
+    }
+
+    /** Return the files of the graph, the records last. */
+    List<File> files() {
+        return List.of(messagesFile, graphFile);
+    }
+
+    /** Replace the files of this graph by the files of the graph OTHER, which is left empty,
+     *  both at once through the journal. */
+    void replaceWith(CommitGraph other) {
+        other.close();
+        close();
+        Journal.LOCAL.replaceFiles(files(), other.files());
+    }
+
+    /** Forget the mapped graph files, which are mapped again when needed. */
+    void close() {
+        records = null;
+        messages = null;
+        positions = null;
+    }
+
+    /** Build the graph from all the commits of the repository which aren't in it yet. */
+    void build() {
+        for (String uid : Commit.uids()) {
+            ArrayDeque<Commit> stack = new ArrayDeque<>();
+            if (!contains(uid)) {
+                stack.push(Commit.load(uid));
+            }
+            while (!stack.isEmpty()) {
+                Commit commit = stack.peek();
+                boolean parentsAdded = true;
+                for (String parent : new String[] {commit.getFirstParent(), commit.getSecondParent()}) {
+                    if (parent != null && !contains(parent)) {
+                        stack.push(Commit.load(parent));
+                        parentsAdded = false;
+                    }
+                }
+                if (parentsAdded) {
+                    add(stack.pop());
+                }
+            }
+        }
+    }
+
+    private static int offset(int pos) {
+        return HEADER_SIZE + pos * RECORD_SIZE;
+    }
+
+    private ByteBuffer records() {
+        if (records == null) {
+            records = map(graphFile);
+        }
+        return records;
+    }
+
+    private ByteBuffer messages() {
+        if (messages == null) {
+            messages = map(messagesFile);
+        }
+        return messages;
+    }
+
+    /** Return the contents of FILE mapped in memory, or an empty graph if it doesn't exist. */
+    private static ByteBuffer map(File file) {
+        if (!file.exists()) {
+            return ByteBuffer.allocate(HEADER_SIZE);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw error("Cannot read the commit graph: %s", excp.getMessage());
+        }
+    }
+}
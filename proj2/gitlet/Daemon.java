@@ -0,0 +1,227 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/** A long-lived gitlet process serving the commands run in a repository,
+ *  started by "java gitlet.Main serve" and stopped by "java gitlet.Main serve --stop".
+ *  While it runs, the pack index, the commit graph, the staging area, the stat
+ *  cache and the references stay in its memory between commands, instead of
+ *  being read again by a new JVM for every command.
+ *
+ *  The daemon listens on the Unix domain socket DAEMON_SOCKET, and serves one
+ *  command at a time. A client sends the number of arguments (int) followed by
+ *  every argument (UTF); the daemon runs the command and sends back its output,
+ *  then closes the connection. If a command fails, whatever the daemon kept
+ *  in memory is read again from the repository before the next command.
+ *
+ *  Other gitlet processes, such as a push from another repository, may update
+ *  the repository between two commands. Before every command, once it holds the
+ *  repository lock if it needs it, the daemon compares the identity, size and
+ *  modification time of the files it keeps in memory with those it last saw,
+ *  and reads everything again if any changed. The files updated by a command
+ *  of the daemon itself are seen again at its end, still under the lock.
+ *  The stat cache, which every command may write back, is watched the same way
+ *  on its own, and only it is read again when another process rewrote it.
+ *
+ *  @author Shawn
+ */
+class Daemon {
+
+    static final File DAEMON_SOCKET = join(Repository.GITLET_DIR, "daemon.sock");
+    /** The address of the socket, relative to the working directory,
+     *  since socket paths are limited to about a hundred bytes. */
+    private static final UnixDomainSocketAddress ADDRESS =
+            UnixDomainSocketAddress.of(Path.of(".gitlet", "daemon.sock"));
+
+    /** The files whose contents the daemon keeps in memory. */
+    private static final File[] WATCHED_FILES = {Head.HEAD, Branch.BRANCH, Branch.BRANCH_FOLDER,
+        StagingArea.AdditionArea.ADDITIONMAP, StagingArea.RemovalArea.REMOVALSET,
+        BlobArea.PACK.getIndexFile(), Commit.GRAPH.getGraphFile(), Migration.VERSION};
+
+    /** Whether this process is the daemon. */
+    private static boolean serving;
+    /** The attributes of the WATCHED_FILES the state in memory was read from,
+     *  or null if it is unknown. */
+    private static String stamp;
+    /** The attributes of the STATCACHE the stat cache in memory was read from or
+     *  written to, or null if it is unknown. The stat cache is written by the commands
+     *  which only read the repository too, without the lock, so it is watched apart,
+     *  and only the stat cache is read again when it changes. */
+    private static String statStamp;
+
+    /** Forward the command ARGS to the daemon of the repository and print its output.
+     *  Return false if no daemon serves the repository, or if ARGS starts one,
+     *  in which case the command should be run by this process. */
+    static boolean forward(String[] args) {
+        if (!DAEMON_SOCKET.exists() || (args.length == 1 && args[0].equals("serve"))) {
+            return false;
+        }
+        SocketChannel channel = connect();
+        if (channel == null) {
+            return false;
+        }
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            channel.shutdownOutput();
+            Channels.newInputStream(channel).transferTo(System.out);
+            System.out.flush();
+        } catch (IOException excp) {
+            throw error("Lost the connection to the gitlet daemon: %s", excp.getMessage());
+        }
+        return true;
+    }
+
+    /** Serve the commands sent to DAEMON_SOCKET until "serve --stop" is received. */
+    static void serve() {
+        if (DAEMON_SOCKET.exists()) {
+            SocketChannel channel = connect();
+            if (channel != null) {
+                close(channel);
+                throw error("A gitlet daemon is already running.");
+            }
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(ADDRESS);
+            DAEMON_SOCKET.deleteOnExit();
+            serving = true;
+            boolean running = true;
+            while (running) {
+                try (SocketChannel client = server.accept()) {
+                    running = handle(client);
+                } catch (IOException excp) {
+                    reload();
+                }
+            }
+        } catch (IOException excp) {
+            throw error("Cannot start the gitlet daemon: %s", excp.getMessage());
+        } finally {
+            DAEMON_SOCKET.delete();
+        }
+    }
+
+    /** Run the command sent by CLIENT, sending its output back.
+     *  Return false if the command stops the daemon. */
+    private static boolean handle(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = in.readUTF();
+        }
+        PrintStream stdout = System.out;
+        PrintStream reply = new PrintStream(new BufferedOutputStream(
+                Channels.newOutputStream(client)), false, StandardCharsets.UTF_8);
+        System.setOut(reply);
+        try {
+            if (args.length == 2 && args[0].equals("serve") && args[1].equals("--stop")) {
+                return false;
+            }
+            Main.run(args);
+        } catch (GitletException excp) {
+            message(excp.getMessage());
+            reload();
+        } catch (RuntimeException excp) {
+            message("Internal error: %s", excp);
+            reload();
+        } finally {
+            System.setOut(stdout);
+            reply.flush();
+        }
+        return true;
+    }
+
+    /** If this process is the daemon, read the repository again when another process
+     *  changed it since the last command. Run at the start of every command. */
+    static void refresh() {
+        if (!serving) {
+            return;
+        }
+        String current = stamp(WATCHED_FILES);
+        String currentStat = stamp(StatCache.STATCACHE);
+        if (!current.equals(stamp)) {
+            Repository.reload();
+            stamp = current;
+        } else if (!currentStat.equals(statStamp)) {
+            StatCache.reload();
+        }
+        statStamp = currentStat;
+    }
+
+    /** If this process is the daemon, take the stat cache the command wrote back, and
+     *  the files it updated under the repository lock, as the ones the state in memory
+     *  was read from. */
+    static void remember() {
+        if (!serving) {
+            return;
+        }
+        statStamp = stamp(StatCache.STATCACHE);
+        if (RepositoryLock.isHeld()) {
+            stamp = stamp(WATCHED_FILES);
+        }
+    }
+
+    /** Return the identity, size and modification time of FILES. */
+    private static String stamp(File... files) {
+        StringBuilder stamp = new StringBuilder();
+        for (File file : files) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                stamp.append(attributes.fileKey()).append(' ').append(attributes.size()).append(' ')
+                        .append(attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS)).append('\n');
+            } catch (IOException excp) {
+                stamp.append("none\n");
+            }
+        }
+        return stamp.toString();
+    }
+
+    /** Forget the state kept in memory between commands,
+     *  which may be stale after a command failed. */
+    private static void reload() {
+        Journal.LOCAL.discard();
+        Repository.reload();
+        stamp = null;
+        statStamp = null;
+    }
+
+    /** Return a connection to the daemon, or null if it isn't running,
+     *  in which case the stale socket is removed. */
+    private static SocketChannel connect() {
+        try {
+            return SocketChannel.open(ADDRESS);
+        } catch (IOException excp) {
+            DAEMON_SOCKET.delete();
+            return null;
+        }
+    }
+
+    private static void close(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException excp) {
+            return;
+        }
+    }
+}
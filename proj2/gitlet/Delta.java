@@ -0,0 +1,136 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+
+import static gitlet.Utils.*;
+
+/** A binary delta encoder used by the pack to store a revision of a blob
+ *  as a list of instructions against an older revision (the base).
+ *
+ *  A delta starts with the length of the target as a varint, followed by
+ *  a sequence of instructions:
+ *    COPY   -- 0x80, offset (varint), length (varint): copy a range of the base.
+ *    INSERT -- 0x00, length (varint), bytes: insert literal bytes.
+ *
+ *  @author Shawn
+ */
+class Delta {
+
+    private static final int COPY = 0x80;
+    private static final int INSERT = 0x00;
+    /** Size of the blocks of the base indexed to find matches. */
+    private static final int BLOCK_SIZE = 16;
+
+    /** Return the delta which turns BASE into TARGET. */
+    static byte[] create(byte[] base, byte[] target) {
+        HashMap<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK_SIZE <= base.length; i += BLOCK_SIZE) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, target.length);
+        int pending = 0;
+        int i = 0;
+        while (i < target.length) {
+            Integer offset = i + BLOCK_SIZE <= target.length ? blocks.get(hash(target, i)) : null;
+            if (offset == null || !matches(base, offset, target, i)) {
+                i += 1;
+                continue;
+            }
+            int start = offset;
+            int end = offset + BLOCK_SIZE;
+            int j = i + BLOCK_SIZE;
+            while (end < base.length && j < target.length && base[end] == target[j]) {
+                end += 1;
+                j += 1;
+            }
+            int lo = i;
+            while (start > 0 && lo > pending && base[start - 1] == target[lo - 1]) {
+                start -= 1;
+                lo -= 1;
+            }
+            writeInsert(out, target, pending, lo);
+            out.write(COPY);
+            writeVarint(out, start);
+            writeVarint(out, end - start);
+            pending = j;
+            i = j;
+        }
+        writeInsert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /** Return the target reconstructed by applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        byte[] target = new byte[readVarint(delta, pos)];
+        int t = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++] & 0xff;
+            if (op == COPY) {
+                int offset = readVarint(delta, pos);
+                int length = readVarint(delta, pos);
+                System.arraycopy(base, offset, target, t, length);
+                t += length;
+            } else if (op == INSERT) {
+                int length = readVarint(delta, pos);
+                System.arraycopy(delta, pos[0], target, t, length);
+                pos[0] += length;
+                t += length;
+            } else {
+                throw error("Corrupt delta instruction %d.", op);
+            }
+        }
+        if (t != target.length) {
+            throw error("Corrupt delta: expected %d bytes, got %d.", target.length, t);
+        }
+        return target;
+    }
+
+    private static int hash(byte[] data, int from) {
+        int h = 0;
+        for (int k = from; k < from + BLOCK_SIZE; k += 1) {
+            h = 31 * h + data[k];
+        }
+        return h;
+    }
+
+    private static boolean matches(byte[] base, int offset, byte[] target, int from) {
+        for (int k = 0; k < BLOCK_SIZE; k += 1) {
+            if (base[offset + k] != target[from + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeInsert(ByteArrayOutputStream out, byte[] data, int from, int to) {
+        if (to > from) {
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            out.write(data, from, to - from);
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(byte[] data, int[] pos) {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = data[pos[0]++] & 0xff;
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
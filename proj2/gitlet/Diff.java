@@ -0,0 +1,419 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/** Line-level differences between texts, printed as unified diffs by the diff
+ *  command, and three-way merges of texts.
+ *  Because we don't need to instantiate any Diff objects,
+ *  so all the methods in this class are static methods.
+ *
+ *  The differences are found with the linear-space variant of Myers' O(ND)
+ *  algorithm, after the common prefix and suffix are trimmed and the lines
+ *  which only occur in one of the texts are set aside, since they can't be
+ *  part of a common subsequence. Texts with very many differences get a good
+ *  edit script rather than the shortest one, see COST_LIMIT. Lines keep their line terminators, so that
+ *  joining lines gives back the text exactly.
+ *
+ *  @author Shawn
+ */
+class Diff {
+
+    /** Number of differences after which the search for a middle snake settles for
+     *  the furthest point reached so far, so that very different texts are compared
+     *  in bounded time, at the price of an edit script which may not be the shortest. */
+    private static final int COST_LIMIT = 256;
+    /** Number of unchanged lines shown around the changes of a unified hunk. */
+    private static final int CONTEXT = 3;
+
+    /** A difference between two sequences of lines:
+     *  the lines A[aStart..aEnd) are replaced by the lines B[bStart..bEnd). */
+    static class Edit {
+        final int aStart;
+        final int aEnd;
+        final int bStart;
+        final int bEnd;
+
+        Edit(int aStart, int aEnd, int bStart, int bEnd) {
+            this.aStart = aStart;
+            this.aEnd = aEnd;
+            this.bStart = bStart;
+            this.bEnd = bEnd;
+        }
+    }
+
+    /** The result of a three-way merge: the merged text, with conflict markers
+     *  around the regions changed differently on both sides, if any. */
+    static class Merge {
+        final String text;
+        final int conflicts;
+
+        Merge(String text, int conflicts) {
+            this.text = text;
+            this.conflicts = conflicts;
+        }
+    }
+
+    /** Return the lines of TEXT, each with its line terminator if it has one. */
+    static String[] lines(String text) {
+        ArrayList<String> lines = new ArrayList<>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            end = end < 0 ? text.length() : end + 1;
+            lines.add(text.substring(start, end));
+            start = end;
+        }
+        return lines.toArray(new String[0]);
+    }
+
+    /** Return the edits turning the lines A into the lines B, in order. */
+    static List<Edit> diff(String[] a, String[] b) {
+        HashMap<String, Integer> ids = new HashMap<>();
+        int[] aIds = intern(a, ids);
+        return diff(aIds, intern(b, ids), ids.size());
+    }
+
+    /** Return the three-way merge of the texts OURS and THEIRS, both changed from BASE.
+     *  Regions changed on one side only, or changed the same way on both sides,
+     *  are merged; regions changed differently on both sides are conflicts,
+     *  written as "<<<<<<< HEAD\n", the lines of OURS, "=======\n",
+     *  the lines of THEIRS, then ">>>>>>>\n". */
+    static Merge merge(String base, String ours, String theirs) {
+        String[] baseLines = lines(base);
+        String[] ourLines = lines(ours);
+        String[] theirLines = lines(theirs);
+        HashMap<String, Integer> ids = new HashMap<>();
+        int[] baseIds = intern(baseLines, ids);
+        int[] ourIds = intern(ourLines, ids);
+        int[] theirIds = intern(theirLines, ids);
+        List<Edit> ourEdits = diff(baseIds, ourIds, ids.size());
+        List<Edit> theirEdits = diff(baseIds, theirIds, ids.size());
+
+        StringBuilder text = new StringBuilder();
+        int conflicts = 0;
+        int pos = 0;
+        int i = 0;
+        int j = 0;
+        int ourShift = 0;
+        int theirShift = 0;
+        while (i < ourEdits.size() || j < theirEdits.size()) {
+            int lo;
+            if (j == theirEdits.size()
+                    || (i < ourEdits.size() && ourEdits.get(i).aStart <= theirEdits.get(j).aStart)) {
+                lo = ourEdits.get(i).aStart;
+            } else {
+                lo = theirEdits.get(j).aStart;
+            }
+            int hi = lo;
+            int ourStart = lo + ourShift;
+            int theirStart = lo + theirShift;
+            boolean ourChange = false;
+            boolean theirChange = false;
+            boolean grown = true;
+            while (grown) {
+                grown = false;
+                if (i < ourEdits.size() && ourEdits.get(i).aStart <= hi) {
+                    Edit e = ourEdits.get(i);
+                    hi = Math.max(hi, e.aEnd);
+                    ourShift += (e.bEnd - e.bStart) - (e.aEnd - e.aStart);
+                    ourChange = true;
+                    grown = true;
+                    i += 1;
+                }
+                if (j < theirEdits.size() && theirEdits.get(j).aStart <= hi) {
+                    Edit e = theirEdits.get(j);
+                    hi = Math.max(hi, e.aEnd);
+                    theirShift += (e.bEnd - e.bStart) - (e.aEnd - e.aStart);
+                    theirChange = true;
+                    grown = true;
+                    j += 1;
+                }
+            }
+            append(text, baseLines, pos, lo);
+            String[] ourRegion = Arrays.copyOfRange(ourLines, ourStart, hi + ourShift);
+            String[] theirRegion = Arrays.copyOfRange(theirLines, theirStart, hi + theirShift);
+            if (!theirChange || Arrays.equals(ourRegion, theirRegion)) {
+                append(text, ourRegion, 0, ourRegion.length);
+            } else if (!ourChange) {
+                append(text, theirRegion, 0, theirRegion.length);
+            } else {
+                text.append("<<<<<<< HEAD\n");
+                append(text, ourRegion, 0, ourRegion.length);
+                text.append("=======\n");
+                append(text, theirRegion, 0, theirRegion.length);
+                text.append(">>>>>>>\n");
+                conflicts += 1;
+            }
+            pos = hi;
+        }
+        append(text, baseLines, pos, baseLines.length);
+        return new Merge(text.toString(), conflicts);
+    }
+
+    /** Print the differences between the versions BEFORE and AFTER of the file named
+     *  "fileName" as a unified diff, one hunk at a time. A null version means that
+     *  the file doesn't exist on that side. */
+    static void printUnified(String fileName, String before, String after) {
+        if (isBinary(before) || isBinary(after)) {
+            printBinary(fileName, before != null, after != null);
+            return;
+        }
+        System.out.printf("diff a/%s b/%s\n", fileName, fileName);
+        System.out.printf("--- %s\n+++ %s\n",
+                before == null ? "/dev/null" : "a/" + fileName,
+                after == null ? "/dev/null" : "b/" + fileName);
+        String[] a = lines(before == null ? "" : before);
+        String[] b = lines(after == null ? "" : after);
+        List<Edit> edits = diff(a, b);
+        int first = 0;
+        while (first < edits.size()) {
+            int last = first;
+            while (last + 1 < edits.size()
+                    && edits.get(last + 1).aStart - edits.get(last).aEnd <= 2 * CONTEXT) {
+                last += 1;
+            }
+            Edit firstEdit = edits.get(first);
+            Edit lastEdit = edits.get(last);
+            int aFrom = Math.max(0, firstEdit.aStart - CONTEXT);
+            int bFrom = aFrom + firstEdit.bStart - firstEdit.aStart;
+            int aTo = Math.min(a.length, lastEdit.aEnd + CONTEXT);
+            int bTo = aTo + lastEdit.bEnd - lastEdit.aEnd;
+            StringBuilder hunk = new StringBuilder(String.format("@@ -%s +%s @@\n",
+                    range(aFrom, aTo - aFrom), range(bFrom, bTo - bFrom)));
+            int x = aFrom;
+            for (int k = first; k <= last; k += 1) {
+                Edit e = edits.get(k);
+                appendLines(hunk, ' ', a, x, e.aStart);
+                appendLines(hunk, '-', a, e.aStart, e.aEnd);
+                appendLines(hunk, '+', b, e.bStart, e.bEnd);
+                x = e.aEnd;
+            }
+            appendLines(hunk, ' ', a, x, aTo);
+            System.out.print(hunk);
+            first = last + 1;
+        }
+    }
+
+    /** Print that the versions of the file named "fileName" differ, without comparing
+     *  their contents, BEFORE and AFTER telling whether the file exists on either side. */
+    static void printBinary(String fileName, boolean before, boolean after) {
+        System.out.printf("diff a/%s b/%s\n", fileName, fileName);
+        System.out.printf("Binary files %s and %s differ\n",
+                before ? "a/" + fileName : "/dev/null", after ? "b/" + fileName : "/dev/null");
+    }
+
+    /** Return whether TEXT looks like binary content rather than text. */
+    private static boolean isBinary(String text) {
+        return text != null && text.indexOf('\0') >= 0;
+    }
+
+    /** Return the range of LENGTH lines starting at line FROM, counted from 0,
+     *  in the format of the header of a unified hunk. */
+    private static String range(int from, int length) {
+        if (length == 1) {
+            return String.valueOf(from + 1);
+        }
+        return String.format("%d,%d", length == 0 ? from : from + 1, length);
+    }
+
+    /** Append LINES[FROM..TO) to HUNK, each after PREFIX. */
+    private static void appendLines(StringBuilder hunk, char prefix, String[] lines, int from, int to) {
+        for (int k = from; k < to; k += 1) {
+            hunk.append(prefix).append(lines[k]);
+            if (!lines[k].endsWith("\n")) {
+                hunk.append("\n\\ No newline at end of file\n");
+            }
+        }
+    }
+
+    private static void append(StringBuilder text, String[] lines, int from, int to) {
+        for (int k = from; k < to; k += 1) {
+            text.append(lines[k]);
+        }
+    }
+
+    /** Return the ids of LINES, equal lines having the same id in IDS. */
+    private static int[] intern(String[] lines, HashMap<String, Integer> ids) {
+        int[] result = new int[lines.length];
+        for (int k = 0; k < lines.length; k += 1) {
+            Integer id = ids.putIfAbsent(lines[k], ids.size());
+            result[k] = id == null ? ids.size() - 1 : id;
+        }
+        return result;
+    }
+
+    /** Return the edits turning the sequence A into the sequence B, in order.
+     *  The elements of A and B are below IDCOUNT. */
+    private static List<Edit> diff(int[] a, int[] b, int idCount) {
+        int[] aKept = common(a, b, idCount);
+        int[] bKept = common(b, a, idCount);
+        int[] aIds = new int[aKept.length];
+        int[] bIds = new int[bKept.length];
+        for (int k = 0; k < aKept.length; k += 1) {
+            aIds[k] = a[aKept[k]];
+        }
+        for (int k = 0; k < bKept.length; k += 1) {
+            bIds[k] = b[bKept[k]];
+        }
+        boolean[] aKeptMatched = new boolean[aIds.length];
+        boolean[] bKeptMatched = new boolean[bIds.length];
+        int max = (aIds.length + bIds.length + 1) / 2 + 1;
+        int[] forward = new int[2 * max + 1];
+        int[] backward = new int[2 * max + 1];
+        match(aIds, 0, aIds.length, bIds, 0, bIds.length, aKeptMatched, bKeptMatched, forward, backward);
+
+        boolean[] aMatched = new boolean[a.length];
+        boolean[] bMatched = new boolean[b.length];
+        for (int k = 0; k < aKept.length; k += 1) {
+            aMatched[aKept[k]] = aKeptMatched[k];
+        }
+        for (int k = 0; k < bKept.length; k += 1) {
+            bMatched[bKept[k]] = bKeptMatched[k];
+        }
+        List<Edit> edits = new ArrayList<>();
+        int x = 0;
+        int y = 0;
+        while (x < a.length || y < b.length) {
+            while (x < a.length && y < b.length && aMatched[x] && bMatched[y]) {
+                x += 1;
+                y += 1;
+            }
+            int x0 = x;
+            int y0 = y;
+            while (x < a.length && !aMatched[x]) {
+                x += 1;
+            }
+            while (y < b.length && !bMatched[y]) {
+                y += 1;
+            }
+            if (x > x0 || y > y0) {
+                edits.add(new Edit(x0, x, y0, y));
+            }
+        }
+        return edits;
+    }
+
+    /** Return the indices of the elements of A which also occur in B. */
+    private static int[] common(int[] a, int[] b, int idCount) {
+        boolean[] inB = new boolean[idCount];
+        for (int id : b) {
+            inB[id] = true;
+        }
+        int[] kept = new int[a.length];
+        int n = 0;
+        for (int k = 0; k < a.length; k += 1) {
+            if (inB[a[k]]) {
+                kept[n] = k;
+                n += 1;
+            }
+        }
+        return Arrays.copyOf(kept, n);
+    }
+
+    /** Mark the elements of a longest common subsequence of A[aLo..aHi) and B[bLo..bHi)
+     *  in A_MATCHED and B_MATCHED, splitting the problem at its middle snake.
+     *  FORWARD and BACKWARD are scratch arrays for the furthest reaching paths. */
+    private static void match(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi,
+                              boolean[] aMatched, boolean[] bMatched, int[] forward, int[] backward) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aMatched[aLo] = true;
+            bMatched[bLo] = true;
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+            aMatched[aHi] = true;
+            bMatched[bHi] = true;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            return;
+        }
+        int[] snake = middleSnake(a, aLo, aHi, b, bLo, bHi, forward, backward);
+        for (int x = snake[0], y = snake[1]; x < snake[2]; x += 1, y += 1) {
+            aMatched[x] = true;
+            bMatched[y] = true;
+        }
+        match(a, aLo, snake[0], b, bLo, snake[1], aMatched, bMatched, forward, backward);
+        match(a, snake[2], aHi, b, snake[3], bHi, aMatched, bMatched, forward, backward);
+    }
+
+    /** Return the middle snake of a shortest edit script of A[aLo..aHi) into B[bLo..bHi),
+     *  as {x start, y start, x end, y end}, or an empty snake at the furthest point
+     *  reached when the script has more than COST_LIMIT edits. */
+    private static int[] middleSnake(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi,
+                                     int[] forward, int[] backward) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int offset = (n + m + 1) / 2 + 1;
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        for (int d = 0; d <= (n + m + 1) / 2; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])) {
+                    x = forward[offset + k + 1];
+                } else {
+                    x = forward[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[offset + k] = x;
+                int reverse = delta - k;
+                if (odd && reverse >= -(d - 1) && reverse <= d - 1
+                        && x + backward[offset + reverse] >= n) {
+                    return new int[] {aLo + x0, bLo + y0, aLo + x, bLo + y};
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && backward[offset + k - 1] < backward[offset + k + 1])) {
+                    x = backward[offset + k + 1];
+                } else {
+                    x = backward[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[offset + k] = x;
+                int ahead = delta - k;
+                if (!odd && ahead >= -d && ahead <= d && x + forward[offset + ahead] >= n) {
+                    return new int[] {aHi - x, bHi - y, aHi - x0, bHi - y0};
+                }
+            }
+            if (d >= COST_LIMIT) {
+                int best = -1;
+                int bestK = 0;
+                for (int k = -d; k <= d; k += 2) {
+                    int x = forward[offset + k];
+                    int y = x - k;
+                    if (x <= n && y >= 0 && y <= m && x + y < n + m && x + y > best) {
+                        best = x + y;
+                        bestK = k;
+                    }
+                }
+                if (best > 0) {
+                    int x = forward[offset + bestK];
+                    int y = x - bestK;
+                    return new int[] {aLo + x, bLo + y, aLo + x, bLo + y};
+                }
+            }
+        }
+        throw new IllegalStateException("no middle snake");
+    }
+}
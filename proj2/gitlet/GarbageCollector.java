@@ -0,0 +1,251 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** Removes the commits and the blobs which can no longer be reached, for the gc command.
+ *  Objects are reachable from the head commit, the heads of the branches and the
+ *  staging area; the parents and the tree of a reachable commit are reachable,
+ *  and so are the children and the blobs of a reachable tree object.
+ *  Because we don't need to instantiate any GarbageCollector objects,
+ *  so all the methods in this class are static methods.
+ *
+ *  The collection runs in three phases:
+ *    mark   -- walk the commit graph from the heads with an explicit stack,
+ *              marking the reachable commits in a bit set over their positions.
+ *    copy   -- copy the reachable commits into a new commit graph and their blobs
+ *              into a new pack, in the order of the graph, each blob of the pack
+ *              being marked in a bit set over its position in the old pack.
+ *              The tree of every commit is walked along the tree of its first parent,
+ *              which was walked before it, skipping the subtrees they share; the trees
+ *              and the large blobs walked are marked in a Bloom filter of a fixed size.
+ *              A new message index is built from the new graph.
+ *    sweep  -- replace the graph, the pack and the message index by the new ones,
+ *              all their files at once through the journal, throw the changed-path
+ *              filters away and delete the files of the unreachable commits, trees
+ *              and large blobs.
+ *  Only the bit sets, the stack, two paths of trees and the index lines of one commit
+ *  are held in memory, with the names of the index files.
+ *  Nothing is deleted before the new graph and pack are complete.
+ *
+ *  @author Shawn
+ */
+public class GarbageCollector {
+
+    /** The trees and large blobs marked reachable: a Bloom filter of a fixed size, so that
+     *  marking millions of objects takes bounded memory. It may report an object it
+     *  wasn't given, which is then kept until a later collection, but never misses one. */
+    private static class Marks {
+        private static final int BITS = 1 << 26;
+        private static final int HASHES = 4;
+        private final BitSet bits = new BitSet(BITS);
+
+        void add(String uid) {
+            for (int k = 0; k < HASHES; k += 1) {
+                bits.set(index(uid, k));
+            }
+        }
+
+        boolean mightContain(String uid) {
+            for (int k = 0; k < HASHES; k += 1) {
+                if (!bits.get(index(uid, k))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Return the K-th bit of the uid, taken from its own hexadecimal digits,
+         *  which are uniformly distributed. */
+        private static int index(String uid, int k) {
+            return Integer.parseInt(uid.substring(8 * k, 8 * k + 7), 16) & (BITS - 1);
+        }
+    }
+
+    /** Folder the new graph and pack are written into. */
+    static final File GC_FOLDER = join(Repository.GITLET_DIR, "gc");
+
+    /** Collect the garbage of the repository and report how much was removed. */
+    static void run() {
+        long before = objectStoreSize();
+        CommitGraph graph = Commit.GRAPH;
+        Pack pack = BlobArea.PACK;
+
+        BitSet reachable = mark(graph);
+
+        clear(GC_FOLDER);
+        GC_FOLDER.mkdir();
+        CommitGraph newGraph = new CommitGraph(GC_FOLDER);
+        Pack newPack = new Pack(GC_FOLDER);
+        BitSet copied = new BitSet(pack.size());
+        Marks marks = new Marks();
+        for (int pos = reachable.nextSetBit(0); pos >= 0; pos = reachable.nextSetBit(pos + 1)) {
+            Commit commit = Commit.load(graph.uid(pos));
+            newGraph.add(commit);
+            String parentTree = null;
+            if (commit.getFirstParent() != null) {
+                parentTree = Commit.load(commit.getFirstParent()).getTree();
+            }
+            walk(commit.getTree(), parentTree, newPack, copied, marks);
+        }
+        for (String blobUID : StagingArea.AdditionArea.getMap().values()) {
+            copy(blobUID, null, newPack, copied, marks);
+        }
+
+        int commits = graph.size() - reachable.cardinality();
+        int blobs = pack.size() - copied.cardinality();
+        pack.close();
+        graph.close();
+        newPack.close();
+        File newMessages = join(GC_FOLDER, MessageIndex.MESSAGE_FOLDER.getName());
+        MessageIndex.build(newGraph, newMessages);
+        newGraph.close();
+        List<File> targets = new ArrayList<>(pack.files());
+        targets.addAll(graph.files());
+        List<File> sources = new ArrayList<>(newPack.files());
+        sources.addAll(newGraph.files());
+        File newTokens = join(newMessages, MessageIndex.TOKEN_FOLDER.getName());
+        addIndexFiles(MessageIndex.MESSAGE_FOLDER, newMessages, targets, sources);
+        addIndexFiles(MessageIndex.TOKEN_FOLDER, newTokens, targets, sources);
+        Journal.LOCAL.replaceFiles(targets, sources);
+        ChangedPaths.clear();
+        clear(GC_FOLDER);
+        for (String uid : Commit.uids()) {
+            if (!graph.contains(uid)) {
+                delete(objectFile(Commit.COMMIT_FOLDER, uid));
+            }
+        }
+        int unreachableTrees = 0;
+        for (String uid : objectUidsIn(Tree.TREE_FOLDER)) {
+            if (!marks.mightContain(uid)) {
+                delete(objectFile(Tree.TREE_FOLDER, uid));
+                unreachableTrees += 1;
+            }
+        }
+        for (String uid : objectUidsIn(BlobArea.BLOB_FOLDER)) {
+            if (!marks.mightContain(uid)) {
+                delete(objectFile(BlobArea.BLOB_FOLDER, uid));
+                blobs += 1;
+            }
+        }
+
+        long after = objectStoreSize();
+        message("Removed %d commits, %d trees and %d blobs, reclaimed %d bytes.",
+                commits, unreachableTrees, blobs, Math.max(0, before - after));
+    }
+
+    /** Return the positions in GRAPH of the commits reachable from the head commit
+     *  and the heads of the branches. */
+    private static BitSet mark(CommitGraph graph) {
+        BitSet reachable = new BitSet(graph.size());
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        stack.push(graph.position(Head.get()));
+        for (String branchName : Branch.names()) {
+            stack.push(graph.position(Branch.reference(branchName)));
+        }
+        while (!stack.isEmpty()) {
+            int pos = stack.pop();
+            if (pos == CommitGraph.NONE || reachable.get(pos)) {
+                continue;
+            }
+            reachable.set(pos);
+            stack.push(graph.firstParent(pos));
+            stack.push(graph.secondParent(pos));
+        }
+        return reachable;
+    }
+
+    /** Mark the trees of the trie "treeUID" and the large blobs they hold, and copy their
+     *  small blobs into NEWPACK, skipping the subtrees the trie shares with the trie
+     *  "parentUID" of the first parent of its commit, at the same place, which were
+     *  walked with the parent. Every blob is copied as a delta against the version of its
+     *  file in the parent, if it is worth it. */
+    private static void walk(String treeUID, String parentUID, Pack newPack, BitSet copied, Marks marks) {
+        if (treeUID == null || treeUID.equals(parentUID)) {
+            return;
+        }
+        marks.add(treeUID);
+        TreeMap<String, String> files = Tree.leafFiles(treeUID);
+        TreeMap<String, String> parentFiles = parentUID == null ? null : Tree.leafFiles(parentUID);
+        if (files != null) {
+            for (Map.Entry<String, String> file : files.entrySet()) {
+                String baseUID = parentFiles == null ? null : parentFiles.get(file.getKey());
+                copy(file.getValue(), baseUID, newPack, copied, marks);
+            }
+            return;
+        }
+        String[] children = Tree.children(treeUID);
+        String[] parentChildren = parentUID == null || parentFiles != null ? null : Tree.children(parentUID);
+        for (int i = 0; i < children.length; i += 1) {
+            walk(children[i], parentChildren == null ? null : parentChildren[i], newPack, copied, marks);
+        }
+    }
+
+    /** Copy the blob with uid "blobUID" from the pack into NEWPACK, as a delta against
+     *  the blob with uid "baseUID" if it is worth it, unless it is already COPIED.
+     *  Large blobs, which aren't in the pack, are added to MARKS. */
+    private static void copy(String blobUID, String baseUID, Pack newPack, BitSet copied, Marks marks) {
+        int pos = BlobArea.PACK.position(blobUID);
+        if (pos < 0) {
+            marks.add(blobUID);
+        } else if (!copied.get(pos)) {
+            copied.set(pos);
+            newPack.write(blobUID, BlobArea.PACK.read(blobUID), baseUID);
+        }
+    }
+
+    /** Add to TARGETS every file of the index folder FOLDER and of the new index folder
+     *  NEWFOLDER, and to SOURCES the file of NEWFOLDER replacing it, which is missing
+     *  if the file is to be deleted. */
+    private static void addIndexFiles(File folder, File newFolder, List<File> targets, List<File> sources) {
+        TreeSet<String> uids = new TreeSet<>(objectUidsIn(folder));
+        uids.addAll(objectUidsIn(newFolder));
+        for (String uid : uids) {
+            targets.add(objectFile(folder, uid));
+            sources.add(objectFile(newFolder, uid));
+        }
+    }
+
+    /** Delete FOLDER and everything in it, if it exists. */
+    private static void clear(File folder) {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                clear(file);
+            }
+        }
+        folder.delete();
+    }
+
+    /** Delete FILE, and its folder if it is left empty. */
+    private static void delete(File file) {
+        file.delete();
+        file.getParentFile().delete();
+    }
+
+    /** Return the total size of the object store: the commits, the trees and the blobs,
+     *  both in the pack and in files. */
+    private static long objectStoreSize() {
+        return sizeOf(Commit.COMMIT_FOLDER) + sizeOf(Tree.TREE_FOLDER) + sizeOf(BlobArea.BLOB_FOLDER);
+    }
+
+    /** Return the total size of the files in FOLDER and its sub-folders. */
+    private static long sizeOf(File folder) {
+        long size = 0;
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                size += file.isDirectory() ? sizeOf(file) : file.length();
+            }
+        }
+        return size;
+    }
+}
@@ -6,6 +6,8 @@ import java.io.Serializable;
 import static gitlet.Utils.*;
 
 /** Represents a gitlet HEAD object.
+ *  The uid of the head commit is read once and kept in memory,
+ *  and written through the journal into HEAD whenever it changes.
  *
  *  @author Shawn
  */
@@ -13,18 +15,29 @@ public class Head implements Serializable {
 
     static final File HEAD = join(Repository.GITLET_DIR, "HEAD");
 
+    /** The uid of the current head commit, or null if not read yet. */
+    private static String head;
+
     static void set(String commitUID) {
-        writeContents(HEAD, commitUID);
+        Journal.LOCAL.write(HEAD, commitUID);
+        head = commitUID;
     }
 
     /** Get the uid of the current head commit. */
     static String get() {
-        return readContentsAsString(HEAD);
+        if (head == null) {
+            head = readContentsAsString(HEAD);
+        }
+        return head;
+    }
+
+    /** Forget the value kept in memory, so that HEAD is read again. */
+    static void reload() {
+        head = null;
     }
 
     /** Load the current commit referenced by HEAD. */
     static Commit load() {
-        File commitFile = join(Commit.COMMIT_FOLDER, get());
-        return readObject(commitFile, Commit.class);
+        return Commit.load(get());
     }
 }
@@ -0,0 +1,556 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static gitlet.Utils.*;
+
+/** An abstraction of the journal of a repository represented by its JOURNAL file:
+ *  the updates of the references and of the staging area made by a command, and the
+ *  entries it appends to the message index, are written ahead into the journal,
+ *  and only then applied to their files, so that a crash never leaves them half
+ *  updated, such as HEAD pointing at a commit its branch doesn't.
+ *  LOCAL is the journal of the repository in the current working directory; a push
+ *  updates the remote repository through a journal of its own.
+ *
+ *  During a command, the updates are kept in memory, and the files read through the
+ *  journal see them. At the end of the command, commit runs in three steps:
+ *    sync  -- force the objects appended to the pack and the commit graph and the
+ *             large blobs saved by the command, which the updates may refer to.
+ *    write -- write all the updates into JOURNAL, with the commits and trees saved
+ *             by the command, and force it: the one sync of the updates.
+ *    apply -- replace every updated file by its new contents with an atomic rename,
+ *             delete the files to delete, write the appended bytes at the end of
+ *             their files as the journal found them, force the files and their folders,
+ *             then empty JOURNAL.
+ *  The journal is committed under the repository lock, after checking that the files
+ *  updated by compare-and-swap, such as the branch a commit moves forward, still hold
+ *  what the command read; otherwise the command fails and nothing is updated.
+ *  LOCAL takes the lock itself; the journal of another repository is committed under
+ *  the lock its caller holds.
+ *  A command which fails discards its updates. The next command applies a complete
+ *  JOURNAL again, which is idempotent, and ignores an incomplete one, whose updates
+ *  were never applied. JOURNAL is emptied rather than deleted, so that committing
+ *  never changes the .gitlet directory itself.
+ *
+ *  Files replaced as a whole, such as the pack and its index by gc, are journaled
+ *  and renamed right away by replaceFiles, so that they are never left half replaced.
+ *
+ *  JOURNAL archive:
+ *    header  -- "JRNL", version (int)
+ *    records -- type (byte), path relative to the .gitlet directory (UTF),
+ *               then for RENAME records, path of the file replacing it (UTF),
+ *               for APPEND records, length of the file before (long),
+ *               then for WRITE, OBJECT and APPEND records, length (int), contents
+ *    trailer -- END (byte), CRC32 of the header and the records (long)
+ *
+ *  @author Shawn
+ */
+class Journal {
+
+    static final File JOURNAL = join(Repository.GITLET_DIR, "JOURNAL");
+
+    private static final int VERSION = 1;
+    private static final byte[] MAGIC = {'J', 'R', 'N', 'L'};
+    private static final int HEADER_SIZE = 8;
+    private static final int TRAILER_SIZE = 9;
+
+    /** A file replaced by new contents. */
+    private static final byte WRITE = 0;
+    /** A file deleted. */
+    private static final byte DELETE = 1;
+    /** A loose object, already written, which is only written again by a recovery. */
+    private static final byte OBJECT = 2;
+    private static final byte END = 3;
+    /** Bytes appended to a file. */
+    private static final byte APPEND = 4;
+    /** A file replaced by another file. */
+    private static final byte RENAME = 5;
+
+    /** Bytes appended to a file, which was OFFSET bytes long before. */
+    private static class Append {
+        private final long offset;
+        private final byte[] contents;
+
+        Append(long offset, byte[] contents) {
+            this.offset = offset;
+            this.contents = contents;
+        }
+    }
+
+    /** The records of a journal. */
+    private static class Records {
+        /** The loose objects, written again only by a recovery. */
+        private final LinkedHashMap<File, byte[]> objects = new LinkedHashMap<>();
+        /** The new contents of the updated files, null for the deleted files. */
+        private final LinkedHashMap<File, byte[]> updates = new LinkedHashMap<>();
+        /** The bytes appended to files. */
+        private final LinkedHashMap<File, Append> appends = new LinkedHashMap<>();
+        /** The file replacing every replaced file. */
+        private final LinkedHashMap<File, File> renames = new LinkedHashMap<>();
+    }
+
+    /** The journal of the repository in the current working directory. */
+    static final Journal LOCAL = new Journal(Repository.GITLET_DIR, BlobArea.PACK, Commit.GRAPH);
+
+    /** The .gitlet directory of the repository, its JOURNAL file, and its pack and
+     *  commit graph, forced before the updates are written. */
+    private final File dir;
+    private final File journalFile;
+    private final Pack pack;
+    private final CommitGraph graph;
+
+    /** The new contents of the files updated by the command, null for the deleted files. */
+    private final LinkedHashMap<File, byte[]> updates = new LinkedHashMap<>();
+    /** The loose objects saved by the command. */
+    private final LinkedHashMap<File, byte[]> objects = new LinkedHashMap<>();
+    /** The contents the files updated by compare-and-swap had when the command read them. */
+    private final LinkedHashMap<File, byte[]> expected = new LinkedHashMap<>();
+    /** The bytes appended by the command to the end of files. */
+    private final LinkedHashMap<File, ByteArrayOutputStream> appends = new LinkedHashMap<>();
+    /** The large blobs saved by the command, which are too large to be journaled. */
+    private final List<File> unsynced = new ArrayList<>();
+
+    /** The journal of the repository whose .gitlet directory is DIR,
+     *  with the pack PACK and the commit graph GRAPH. */
+    Journal(File dir, Pack pack, CommitGraph graph) {
+        this.dir = dir;
+        this.journalFile = join(dir, JOURNAL.getName());
+        this.pack = pack;
+        this.graph = graph;
+    }
+
+    /** Replace the contents of FILE by CONTENTS at the end of the command. */
+    void write(File file, byte[] contents) {
+        updates.put(file, contents);
+    }
+
+    /** Replace the contents of FILE by the string CONTENTS at the end of the command. */
+    void write(File file, String contents) {
+        write(file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Replace the contents of FILE by OBJ at the end of the command. */
+    void writeObject(File file, Serializable obj) {
+        write(file, Codec.encode(obj));
+    }
+
+    /** Replace the contents of FILE by the string CONTENTS at the end of the command,
+     *  provided it still holds EXPECTEDCONTENTS then; otherwise the command fails
+     *  without updating anything. */
+    void compareAndWrite(File file, String expectedContents, String contents) {
+        byte[] old = expectedContents.getBytes(StandardCharsets.UTF_8);
+        if (!Arrays.equals(read(file), old)) {
+            throw changedError(file);
+        }
+        if (!updates.containsKey(file)) {
+            expected.putIfAbsent(file, old);
+        }
+        write(file, contents);
+    }
+
+    /** Append CONTENTS to the end of FILE at the end of the command,
+     *  creating it and its folders if needed. */
+    void append(File file, byte[] contents) {
+        appends.computeIfAbsent(file, k -> new ByteArrayOutputStream()).writeBytes(contents);
+    }
+
+    /** Delete FILE at the end of the command. */
+    void delete(File file) {
+        updates.put(file, null);
+    }
+
+    /** Write the loose object OBJ into FILE now, creating its folder if needed,
+     *  and journal it so that it is made durable with the updates.
+     *  The object is written by an atomic rename, without the repository lock. */
+    void saveObject(File file, Serializable obj) {
+        saveObject(file, Codec.encode(obj));
+    }
+
+    /** Write the loose object of the encoded CONTENTS into FILE now, like saveObject. */
+    void saveObject(File file, byte[] contents) {
+        file.getParentFile().mkdir();
+        writeContentsAtomically(file, contents);
+        objects.put(file, contents);
+    }
+
+    /** Force FILE, a large blob saved by the command, before the updates are written. */
+    void sync(File file) {
+        unsynced.add(file);
+    }
+
+    /** Return the contents of FILE as the command left it so far,
+     *  or null if it doesn't exist. */
+    byte[] read(File file) {
+        byte[] contents;
+        if (updates.containsKey(file)) {
+            contents = updates.get(file);
+        } else {
+            contents = file.isFile() ? readContents(file) : null;
+        }
+        ByteArrayOutputStream appended = appends.get(file);
+        if (appended == null) {
+            return contents;
+        }
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        all.writeBytes(contents == null ? new byte[0] : contents);
+        all.writeBytes(appended.toByteArray());
+        return all.toByteArray();
+    }
+
+    /** Return the contents of FILE as the command left it so far, as a string,
+     *  or null if it doesn't exist. */
+    String readString(File file) {
+        byte[] contents = read(file);
+        return contents == null ? null : new String(contents, StandardCharsets.UTF_8);
+    }
+
+    /** Return whether FILE exists as the command left it so far. */
+    boolean exists(File file) {
+        if (appends.containsKey(file)) {
+            return true;
+        }
+        return updates.containsKey(file) ? updates.get(file) != null : file.isFile();
+    }
+
+    /** Make the updates of the command durable with a single sync of the journal,
+     *  then apply them, under the repository lock. Fail without updating anything
+     *  if a file updated by compare-and-swap was changed since the command read it. */
+    void commit() {
+        if (updates.isEmpty() && appends.isEmpty()) {
+            discard();
+            return;
+        }
+        long start = System.nanoTime();
+        lock();
+        for (Map.Entry<File, byte[]> file : expected.entrySet()) {
+            byte[] contents = file.getKey().isFile() ? readContents(file.getKey()) : null;
+            if (!Arrays.equals(contents, file.getValue())) {
+                discard();
+                throw changedError(file.getKey());
+            }
+        }
+        int syncs = pack.sync() + graph.sync();
+        for (File file : unsynced) {
+            force(file);
+            syncs += 1;
+        }
+        Records records = new Records();
+        records.objects.putAll(objects);
+        records.updates.putAll(updates);
+        for (Map.Entry<File, ByteArrayOutputStream> file : appends.entrySet()) {
+            records.appends.put(file.getKey(), new Append(file.getKey().length(), file.getValue().toByteArray()));
+        }
+        writeJournal(records);
+        syncs += 1;
+        long written = System.nanoTime();
+        syncs += apply(records, false);
+        truncate();
+        if (System.getenv("GITLET_TIMING") != null) {
+            System.err.printf("journal: %d updates, %d appends, %d objects, %d syncs, "
+                    + "%.1f ms written, %.1f ms applied%n", updates.size(), appends.size(), objects.size(), syncs,
+                    (written - start) / 1e6, (System.nanoTime() - written) / 1e6);
+        }
+        discard();
+    }
+
+    /** Replace every file of TARGETS by the file of SOURCES at the same index, or delete
+     *  it if that source doesn't exist, as a whole and right away, under the repository
+     *  lock: the renames are journaled before they are made, so that the next command
+     *  finishes them if they are interrupted. The pending updates of the command stay
+     *  pending. */
+    void replaceFiles(List<File> targets, List<File> sources) {
+        lock();
+        Records records = new Records();
+        for (int i = 0; i < targets.size(); i += 1) {
+            if (sources.get(i).exists()) {
+                records.renames.put(targets.get(i), sources.get(i));
+            } else {
+                records.updates.put(targets.get(i), null);
+            }
+        }
+        writeJournal(records);
+        apply(records, false);
+        truncate();
+    }
+
+    /** Forget the updates of the command, for instance because it failed. */
+    void discard() {
+        updates.clear();
+        objects.clear();
+        appends.clear();
+        expected.clear();
+        unsynced.clear();
+    }
+
+    /** Apply the updates of JOURNAL again if it is complete, then empty it, and cut the
+     *  records left half written at the end of the pack index and the commit graph,
+     *  which are appended to outside the journal.
+     *  Run before every command, in case the previous one was interrupted.
+     *  A journal being applied by another command is waited for, under the lock. */
+    void recover() {
+        pack.repair();
+        if (graph.isTorn()) {
+            lock();
+            graph.repair();
+        }
+        if (!journalFile.isFile() || journalFile.length() == 0) {
+            return;
+        }
+        lock();
+        if (journalFile.length() == 0) {
+            return;
+        }
+        Records records = parse(readContents(journalFile));
+        if (records != null) {
+            apply(records, true);
+        }
+        truncate();
+    }
+
+    /** Write RECORDS into JOURNAL, replacing its contents, and force it. */
+    private void writeJournal(Records records) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            for (Map.Entry<File, File> rename : records.renames.entrySet()) {
+                out.writeByte(RENAME);
+                out.writeUTF(relativePath(rename.getKey()));
+                out.writeUTF(relativePath(rename.getValue()));
+            }
+            for (Map.Entry<File, byte[]> object : records.objects.entrySet()) {
+                writeRecord(out, OBJECT, object.getKey(), object.getValue());
+            }
+            for (Map.Entry<File, byte[]> update : records.updates.entrySet()) {
+                byte type = update.getValue() == null ? DELETE : WRITE;
+                writeRecord(out, type, update.getKey(), update.getValue());
+            }
+            for (Map.Entry<File, Append> append : records.appends.entrySet()) {
+                out.writeByte(APPEND);
+                out.writeUTF(relativePath(append.getKey()));
+                out.writeLong(append.getValue().offset);
+                out.writeInt(append.getValue().contents.length);
+                out.write(append.getValue().contents);
+            }
+            out.writeByte(END);
+            out.flush();
+            out.writeLong(checksum(bytes.toByteArray(), bytes.size() - 1));
+        } catch (IOException excp) {
+            throw error("Cannot write the journal: %s", excp.getMessage());
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        try (FileChannel channel = FileChannel.open(journalFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, buffer.position());
+            }
+            channel.truncate(buffer.limit());
+            channel.force(true);
+        } catch (IOException excp) {
+            throw error("Cannot write the journal: %s", excp.getMessage());
+        }
+    }
+
+    private void writeRecord(DataOutputStream out, byte type, File file,
+                                    byte[] contents) throws IOException {
+        out.writeByte(type);
+        out.writeUTF(relativePath(file));
+        if (type != DELETE) {
+            out.writeInt(contents.length);
+            out.write(contents);
+        }
+    }
+
+    /** Return the records of the journal JOURNAL,
+     *  or null if it is incomplete or corrupt. */
+    private Records parse(byte[] journal) {
+        int end = journal.length - TRAILER_SIZE;
+        if (end < HEADER_SIZE || journal[end] != END
+                || ByteBuffer.wrap(journal, end + 1, 8).getLong() != checksum(journal, end)) {
+            return null;
+        }
+        Records records = new Records();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(journal, 0, end))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC) || in.readInt() != VERSION) {
+                return null;
+            }
+            while (in.available() > 0) {
+                byte type = in.readByte();
+                File file = file(in.readUTF());
+                if (type == RENAME) {
+                    records.renames.put(file, file(in.readUTF()));
+                    continue;
+                }
+                long offset = type == APPEND ? in.readLong() : 0;
+                byte[] contents = null;
+                if (type != DELETE) {
+                    contents = new byte[in.readInt()];
+                    in.readFully(contents);
+                }
+                if (type == APPEND) {
+                    records.appends.put(file, new Append(offset, contents));
+                } else {
+                    (type == OBJECT ? records.objects : records.updates).put(file, contents);
+                }
+            }
+        } catch (IOException excp) {
+            return null;
+        }
+        return records;
+    }
+
+    /** Return the CRC32 of the first LENGTH bytes of BYTES. */
+    private static long checksum(byte[] bytes, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return crc.getValue();
+    }
+
+    /** Apply RECORDS: first the renames whose source is still there, then the updates,
+     *  each file being replaced by an atomic rename, then the appended bytes, each at
+     *  the length its file had when the journal was written, so that they are only
+     *  appended once. The objects are only written on RECOVERY, since they were written
+     *  by the command itself. Then force the files and the folders holding them, which
+     *  record their creations, renames and deletions, onto the disk, so that JOURNAL
+     *  can be emptied. Return the number of files and folders forced. */
+    private int apply(Records records, boolean recovery) {
+        LinkedHashSet<File> folders = new LinkedHashSet<>();
+        LinkedHashSet<File> files = new LinkedHashSet<>();
+        for (Map.Entry<File, File> rename : records.renames.entrySet()) {
+            File target = rename.getKey();
+            File source = rename.getValue();
+            if (source.exists()) {
+                target.getParentFile().mkdirs();
+                try {
+                    Files.move(source.toPath(), target.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException excp) {
+                    throw error("Cannot replace %s: %s", relativePath(target), excp.getMessage());
+                }
+            }
+            files.add(target);
+            folders.add(source.getParentFile());
+            folders.add(target.getParentFile());
+        }
+        for (Map.Entry<File, byte[]> object : records.objects.entrySet()) {
+            if (recovery) {
+                replace(object.getKey(), object.getValue());
+            }
+            files.add(object.getKey());
+            folders.add(object.getKey().getParentFile());
+        }
+        for (Map.Entry<File, byte[]> update : records.updates.entrySet()) {
+            if (update.getValue() == null) {
+                update.getKey().delete();
+            } else {
+                replace(update.getKey(), update.getValue());
+                files.add(update.getKey());
+            }
+            folders.add(update.getKey().getParentFile());
+        }
+        for (Map.Entry<File, Append> append : records.appends.entrySet()) {
+            File file = append.getKey();
+            file.getParentFile().mkdirs();
+            ByteBuffer buffer = ByteBuffer.wrap(append.getValue().contents);
+            try (FileChannel channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, append.getValue().offset + buffer.position());
+                }
+            } catch (IOException excp) {
+                throw error("Cannot append to %s: %s", relativePath(file), excp.getMessage());
+            }
+            files.add(file);
+            folders.add(file.getParentFile());
+        }
+
+        for (File file : files) {
+            force(file);
+        }
+        for (File folder : folders) {
+            forceFolder(folder);
+        }
+        return files.size() + folders.size();
+    }
+
+    /** Replace the contents of FILE by CONTENTS with an atomic rename,
+     *  creating its folder if needed. */
+    private static void replace(File file, byte[] contents) {
+        file.getParentFile().mkdirs();
+        writeContentsAtomically(file, contents);
+    }
+
+    /** Return the error of a command which found FILE changed by another command. */
+    private GitletException changedError(File file) {
+        return error("%s was changed by another gitlet command; run the command again.",
+                relativePath(file));
+    }
+
+    /** Take the lock of the repository if it is the local one; the caller holds the lock
+     *  of any other repository. */
+    private void lock() {
+        if (this == LOCAL) {
+            RepositoryLock.acquire();
+        }
+    }
+
+    /** Return the path of FILE relative to the .gitlet directory, with forward slashes. */
+    private String relativePath(File file) {
+        return dir.toPath().relativize(file.toPath())
+                .toString().replace(File.separatorChar, '/');
+    }
+
+    /** Return the file at PATH relative to the .gitlet directory, with forward slashes. */
+    private File file(String path) {
+        return new File(dir, path.replace('/', File.separatorChar));
+    }
+
+    /** Force the contents of FILE onto the disk. */
+    private static void force(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(false);
+        } catch (IOException excp) {
+            throw error("Cannot sync %s: %s", file.getName(), excp.getMessage());
+        }
+    }
+
+    /** Force the entries of FOLDER onto the disk. Some systems can't open a folder,
+     *  and make renames durable without it. */
+    private static void forceFolder(File folder) {
+        try (FileChannel channel = FileChannel.open(folder.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            return;
+        }
+    }
+
+    /** Empty JOURNAL once its updates are applied. */
+    private void truncate() {
+        try (FileChannel channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(0);
+        } catch (IOException excp) {
+            throw error("Cannot empty the journal: %s", excp.getMessage());
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package gitlet;
 
+import java.util.Arrays;
+import java.util.Set;
+
 import static gitlet.Utils.*;
 
 /** Driver class for Gitlet, a subset of the Git version-control system.
@@ -7,15 +10,48 @@ import static gitlet.Utils.*;
  */
 public class Main {
 
+    /** The commands which update the references or the staging area. */
+    private static final Set<String> WRITING_COMMANDS = Set.of("add", "rm", "commit", "checkout",
+            "branch", "rm-branch", "reset", "merge", "add-remote", "rm-remote",
+            "fetch", "push", "pull", "gc");
+
     /** Usage: java gitlet.Main ARGS, where ARGS contains
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
+     *  If a gitlet daemon serves the repository, the command is forwarded to it.
      */
     public static void main(String[] args) {
+        if (Daemon.forward(args)) {
+            return;
+        }
+        try {
+            run(args);
+        } catch (GitletException excp) {
+            message(excp.getMessage());
+        }
+    }
+
+    /** Run the command ARGS, then write back the staging area, commit the journal
+     *  and write back the stat cache. The commands which update the repository
+     *  hold the repository lock from the start until the journal is applied.
+     *  Throws a GitletException whose message is the error message to print
+     *  if the command fails.
+     */
+    static void run(String[] args) {
         if (args.length == 0) {
-            message("Please enter a command.");
-            System.exit(0);
+            throw error("Please enter a command.");
+        }
+        if (WRITING_COMMANDS.contains(args[0]) && Repository.GITLET_DIR.exists()) {
+            RepositoryLock.acquire();
+        }
+        try {
+            runCommand(args);
+            Daemon.remember();
+        } finally {
+            RepositoryLock.release();
         }
+    }
 
+    private static void runCommand(String[] args) {
         String firstArg = args[0];
         switch (firstArg) {
             case "init" -> {
@@ -24,8 +60,8 @@ public class Main {
             }
             case "add" -> {
                 validateGitletDirectoryExists();
-                validateNumArgs(args, 2, 2);
-                Repository.stagedForAddition(args[1]);
+                validateNumArgs(args, 2, Integer.MAX_VALUE);
+                Repository.stagedForAddition(Arrays.copyOfRange(args, 1, args.length));
             }
             case "rm" -> {
                 validateGitletDirectoryExists();
@@ -39,8 +75,14 @@ public class Main {
             }
             case "log" -> {
                 validateGitletDirectoryExists();
-                validateNumArgs(args, 1, 1);
-                Repository.log();
+                validateNumArgs(args, 1, 3);
+                if (args.length == 1) {
+                    Repository.log();
+                } else if (args.length == 3 && args[1].equals("--")) {
+                    Repository.log(args[2]);
+                } else {
+                    throw error("Incorrect operands.");
+                }
             }
             case "global-log" -> {
                 validateGitletDirectoryExists();
@@ -49,8 +91,14 @@ public class Main {
             }
             case "find" -> {
                 validateGitletDirectoryExists();
-                validateNumArgs(args, 2, 2);
-                Repository.find(args[1]);
+                validateNumArgs(args, 2, 3);
+                if (args.length == 2) {
+                    Repository.find(args[1]);
+                } else if (args[1].equals("--contains")) {
+                    Repository.findContaining(args[2]);
+                } else {
+                    throw error("Incorrect operands.");
+                }
             }
             case "status" -> {
                 validateGitletDirectoryExists();
@@ -64,15 +112,13 @@ public class Main {
                     case 2 -> Repository.checkoutBranch(args[1]);
                     case 3 -> {
                         if (!args[1].equals("--")) {
-                            message("Incorrect operands.");
-                            System.exit(0);
+                            throw error("Incorrect operands.");
                         }
                         Repository.checkoutFileInCommit(Head.get(), args[2]);
                     }
                     case 4 -> {
                         if (!args[2].equals("--")) {
-                            message("Incorrect operands.");
-                            System.exit(0);
+                            throw error("Incorrect operands.");
                         }
                         Repository.checkoutFileInCommit(args[1], args[3]);
                     }
@@ -98,16 +144,81 @@ public class Main {
                 validateNumArgs(args, 2, 2);
                 Repository.merge(args[1]);
             }
+            case "diff" -> {
+                validateGitletDirectoryExists();
+                validateNumArgs(args, 1, 3);
+                switch (args.length) {
+                    case 1 -> Repository.diff();
+                    case 2 -> {
+                        if (!args[1].equals("--cached")) {
+                            throw error("Incorrect operands.");
+                        }
+                        Repository.diffCached();
+                    }
+                    case 3 -> Repository.diff(args[1], args[2]);
+                }
+            }
+            case "add-remote" -> {
+                validateGitletDirectoryExists();
+                validateNumArgs(args, 3, 3);
+                Remote.add(args[1], args[2]);
+            }
+            case "rm-remote" -> {
+                validateGitletDirectoryExists();
+                validateNumArgs(args, 2, 2);
+                Remote.remove(args[1]);
+            }
+            case "fetch" -> {
+                validateGitletDirectoryExists();
+                validateNumArgs(args, 3, 3);
+                Remote.fetch(args[1], args[2]);
+            }
+            case "push" -> {
+                validateGitletDirectoryExists();
+                validateNumArgs(args, 3, 3);
+                Remote.push(args[1], args[2]);
+            }
+            case "pull" -> {
+                validateGitletDirectoryExists();
+                validateNumArgs(args, 3, 3);
+                Remote.pull(args[1], args[2]);
+            }
+            case "merge-base" -> {
+                validateGitletDirectoryExists();
+                validateNumArgs(args, 3, 3);
+                Repository.mergeBase(args[1], args[2]);
+            }
+            case "gc" -> {
+                validateGitletDirectoryExists();
+                validateNumArgs(args, 1, 1);
+                GarbageCollector.run();
+            }
+            case "serve" -> {
+                validateGitletDirectoryExists();
+                validateNumArgs(args, 1, 2);
+                if (args.length == 2 && !args[1].equals("--stop")) {
+                    throw error("Incorrect operands.");
+                } else if (args.length == 2) {
+                    throw error("No gitlet daemon is running.");
+                }
+                Daemon.serve();
+            }
             default -> {
-                message("No command with that name exists.");
-                System.exit(0);
+                throw error("No command with that name exists.");
             }
         }
+        StagingArea.flush();
+        Journal.LOCAL.commit();
+        StatCache.save();
+        if (System.getenv("GITLET_TIMING") != null) {
+            System.err.println(Commit.CACHE);
+            System.err.println(BlobArea.CACHE);
+        }
     }
 
     /**
      * Checks the number of arguments versus the expected number interval,
-     * print the message "Incorrect operands." and exit if they do not match.
+     * throws an error with the message "Incorrect operands." if they do not match.
      *
      * @param args Argument array from command line
      * @param min Number of expected minimum arguments (included)
@@ -115,15 +226,22 @@ public class Main {
      */
     public static void validateNumArgs(String[] args, int min, int max) {
         if (args.length < min || args.length > max) {
-            message("Incorrect operands.");
-            System.exit(0);
+            throw error("Incorrect operands.");
         }
     }
 
+    /**
+     * Checks that the current directory is an initialized gitlet repository,
+     * recovers the updates of an interrupted command from the journal, upgrades
+     * it to the current format if it was written by an older version, and has
+     * a daemon read again what other processes changed.
+     */
     public static void validateGitletDirectoryExists() {
         if (!Repository.GITLET_DIR.exists()) {
-            message("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            throw error("Not in an initialized Gitlet directory.");
         }
+        Journal.LOCAL.recover();
+        Migration.upgrade();
+        Daemon.refresh();
     }
 }
@@ -0,0 +1,178 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/** An abstraction of the message index represented by the MESSAGE_FOLDER,
+ *  which maps every normalized commit message to the UIDs of the commits with
+ *  that message, and every token of the messages to the UIDs of the commits using it.
+ *  Because we don't need to instantiate any MessageIndex objects,
+ *  so all the methods in this class are static methods.
+ *
+ *  A message is normalized by splitting it into tokens -- runs of letters and digits,
+ *  in lower case -- joined by single spaces, so that messages only differing in case,
+ *  punctuation or spacing share a file.
+ *  Every normalized message has a file named after its sha1, fanned out like the
+ *  commits, holding a line per commit in the order the commits were made: the UID
+ *  of the commit and the sha1 of its exact message, which find compares.
+ *  Every token has a file named after its sha1 in the TOKEN_FOLDER, listing the UIDs
+ *  of the commits whose message has the token, which find --contains intersects
+ *  to search the messages having some tokens in a row.
+ *  The index is only ever appended to, through the journal, when a commit is saved,
+ *  so that a command which fails leaves nothing in it; gc builds a new index aside
+ *  and swaps it in through the journal.
+ *  MESSAGE_FOLDER archive:
+ *  --messages/
+ *       |--5f/
+ *           |--0c2a4f0e1a3b9d6a5c7e8f90b1d2e3f4a5b6c7   (uid sha1\nuid sha1\n...)
+ *       |--tokens/
+ *           |--a1/
+ *               |--9e3c5b7d0f2a4c6e8b0d1f3a5c7e9b2d4f6a8c   (uid\nuid\n...)
+ *
+ *  @author Shawn
+ */
+public class MessageIndex {
+
+    static final File MESSAGE_FOLDER = join(Repository.GITLET_DIR, "messages");
+    static final File TOKEN_FOLDER = join(MESSAGE_FOLDER, "tokens");
+
+    /** Initialize the message index. */
+    static void init() {
+        MESSAGE_FOLDER.mkdir();
+        TOKEN_FOLDER.mkdir();
+    }
+
+    /** Record that the commit with the given uid has the message MESSAGE,
+     *  once the journal is committed. */
+    static void add(String message, String commitUID) {
+        add(Journal.LOCAL, MESSAGE_FOLDER, message, commitUID);
+    }
+
+    /** Record in the message index of the repository whose index is MESSAGEFOLDER
+     *  that the commit with the given uid has the message MESSAGE, once JOURNAL,
+     *  the journal of that repository, is committed. */
+    static void add(Journal journal, File messageFolder, String message, String commitUID) {
+        for (Map.Entry<File, String> entry : entries(messageFolder, message, commitUID).entrySet()) {
+            journal.append(entry.getKey(), entry.getValue().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /** Return the uids of the commits with the message MESSAGE, in the order they were made. */
+    static List<String> find(String message) {
+        String messageUID = sha1(message);
+        List<String> uids = new ArrayList<>();
+        for (String line : lines(objectFile(MESSAGE_FOLDER, sha1(normalize(message))))) {
+            if (line.endsWith(messageUID)) {
+                uids.add(line.substring(0, UID_LENGTH));
+            }
+        }
+        return uids;
+    }
+
+    /** Return the uids of the commits whose message has the tokens of TEXT in a row,
+     *  in the order they were made. Only the messages of the commits having every
+     *  token of TEXT, found by intersecting the files of the tokens, are read. */
+    static List<String> findContaining(String text) {
+        List<String> tokens = tokens(text);
+        if (tokens.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<List<String>> postings = new ArrayList<>();
+        for (String token : new LinkedHashSet<>(tokens)) {
+            postings.add(lines(objectFile(TOKEN_FOLDER, sha1(token))));
+        }
+        postings.sort(Comparator.comparingInt(List::size));
+        List<HashSet<String>> others = new ArrayList<>();
+        for (List<String> posting : postings.subList(1, postings.size())) {
+            others.add(new HashSet<>(posting));
+        }
+
+        String normalizedText = " " + String.join(" ", tokens) + " ";
+        List<String> uids = new ArrayList<>();
+        for (String uid : postings.get(0)) {
+            if (others.stream().allMatch(other -> other.contains(uid))
+                    && (" " + normalize(Commit.load(uid).getMessage()) + " ").contains(normalizedText)) {
+                uids.add(uid);
+            }
+        }
+        return uids;
+    }
+
+    /** Rebuild the index from the commit graph, replacing any file already there. */
+    static void build() {
+        for (File folder : new File[] {TOKEN_FOLDER, MESSAGE_FOLDER}) {
+            for (String uid : objectUidsIn(folder)) {
+                objectFile(folder, uid).delete();
+            }
+        }
+        build(Commit.GRAPH, MESSAGE_FOLDER);
+    }
+
+    /** Build the index of the commits of GRAPH into the empty folder MESSAGEFOLDER,
+     *  appending the lines of every commit to their files in the order of the graph,
+     *  so that only the lines of one commit are held in memory. */
+    static void build(CommitGraph graph, File messageFolder) {
+        messageFolder.mkdir();
+        join(messageFolder, TOKEN_FOLDER.getName()).mkdir();
+        for (int pos = 0; pos < graph.size(); pos += 1) {
+            Map<File, String> entries = entries(messageFolder, graph.message(pos), graph.uid(pos));
+            for (Map.Entry<File, String> entry : entries.entrySet()) {
+                entry.getKey().getParentFile().mkdir();
+                try {
+                    Files.writeString(entry.getKey().toPath(), entry.getValue(),
+                            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                } catch (IOException excp) {
+                    throw error("Cannot write %s: %s", entry.getKey().getName(), excp.getMessage());
+                }
+            }
+        }
+    }
+
+    /** Return the lines to append to the files of the message index whose folder is
+     *  MESSAGEFOLDER, for the commit with the given uid and the message MESSAGE. */
+    private static Map<File, String> entries(File messageFolder, String message, String commitUID) {
+        LinkedHashMap<File, String> entries = new LinkedHashMap<>();
+        entries.put(objectFile(messageFolder, sha1(normalize(message))),
+                commitUID + " " + sha1(message) + "\n");
+        File tokenFolder = join(messageFolder, TOKEN_FOLDER.getName());
+        for (String token : new LinkedHashSet<>(tokens(message))) {
+            entries.put(objectFile(tokenFolder, sha1(token)), commitUID + "\n");
+        }
+        return entries;
+    }
+
+    /** Return the normalized MESSAGE: its tokens joined by single spaces. */
+    static String normalize(String message) {
+        return String.join(" ", tokens(message));
+    }
+
+    /** Return the tokens of MESSAGE: its runs of letters and digits, in lower case. */
+    private static List<String> tokens(String message) {
+        List<String> tokens = new ArrayList<>();
+        for (String token : message.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    /** Return the lines of the index file FILE, as the command left it so far. */
+    private static List<String> lines(File file) {
+        String contents = Journal.LOCAL.readString(file);
+        return contents == null ? new ArrayList<>() : contents.lines().toList();
+    }
+}
@@ -0,0 +1,234 @@
+package gitlet;
+
+import java.io.File;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** Upgrades a .gitlet directory written by an older version of gitlet
+ *  to the current format, one version at a time.
+ *  The version of the format is saved in the file "VERSION";
+ *  a repository without this file is of version 1.
+ *  Every file rewritten in place, VERSION included, is replaced by an atomic
+ *  rename, so that a step interrupted halfway leaves each file either as it was
+ *  or rewritten, and can be run again.
+ *
+ *  Versions:
+ *    1 -- commits and blobs saved as flat files in "commits/" and "blobs/".
+ *    2 -- commits and blobs fanned out into two-character prefix sub-folders.
+ *    3 -- commit graph in "COMMITGRAPH" and "COMMITMESSAGES".
+ *    4 -- commits and staging area written in the binary format of Codec
+ *         instead of Java serialization. Blobs already in the pack are left
+ *         as they are, the codec still reading them.
+ *    5 -- index of the commits by message in "messages/".
+ *    6 -- blobs identified by their content alone instead of their file name
+ *         and content. The blobs are saved again under their new UID, into a new
+ *         pack which replaces the old one, and the file maps of the commits and of
+ *         the staging area are rewritten; the UIDs of the commits don't change.
+ *    7 -- objects compressed with zlib. Nothing is rewritten: objects already
+ *         saved stay uncompressed, only objects saved from now on are compressed.
+ *    8 -- files of the commits held by tree objects in "trees/" instead of a whole
+ *         file map in every commit. The commits are rewritten, keeping their UIDs.
+ *    9 -- message index keyed by the normalized messages, with the exact messages
+ *         compared by their sha1, and token index in "messages/tokens/".
+ *         The index is rebuilt from the commit graph.
+ *
+ *  @author Shawn
+ */
+public class Migration {
+
+    static final File VERSION = join(Repository.GITLET_DIR, "VERSION");
+    /** The version of the format written by this version of gitlet. */
+    static final int CURRENT_VERSION = 9;
+
+    /** Mark a newly created repository as being of the current version. */
+    static void init() {
+        writeContents(VERSION, Integer.toString(CURRENT_VERSION));
+    }
+
+    /** Return the version of the format of the repository. */
+    static int version() {
+        if (!VERSION.exists()) {
+            return 1;
+        }
+        return Integer.parseInt(readContentsAsString(VERSION).trim());
+    }
+
+    /** Upgrade the repository to the current version if needed, under the repository lock. */
+    static void upgrade() {
+        int version = version();
+        if (version > CURRENT_VERSION) {
+            throw error("Repository was written by a newer version of gitlet.");
+        } else if (version < CURRENT_VERSION) {
+            RepositoryLock.acquire();
+            version = version();
+        }
+        while (version < CURRENT_VERSION) {
+            upgradeFrom(version);
+            version += 1;
+            writeContentsAtomically(VERSION,
+                    Integer.toString(version).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /** Upgrade the repository from VERSION to the next version, and forget whatever
+     *  was read from the repository meanwhile, which may be in the old format.
+     *  Every step can be run again if gitlet is interrupted before the new version
+     *  is written, so that the next command finishes the upgrade. */
+    static void upgradeFrom(int version) {
+        switch (version) {
+            case 1 -> {
+                fanOut(Commit.COMMIT_FOLDER);
+                fanOut(BlobArea.BLOB_FOLDER);
+            }
+            case 2 -> Commit.GRAPH.build();
+            case 3 -> {
+                for (String uid : Commit.uids()) {
+                    reencode(objectFile(Commit.COMMIT_FOLDER, uid), Commit.class);
+                }
+                reencode(StagingArea.AdditionArea.ADDITIONMAP, TreeMap.class);
+                reencode(StagingArea.RemovalArea.REMOVALSET, TreeSet.class);
+                for (String uid : StagingArea.AdditionArea.getMap().values()) {
+                    reencode(join(StagingArea.AdditionArea.ADDITION_FOLDER, uid), Blob.class);
+                }
+            }
+            case 4 -> MessageIndex.build();
+            case 5 -> identifyBlobsByContent();
+            case 6 -> {
+                /* Nothing to rewrite. */
+            }
+            case 7 -> {
+                Tree.init();
+                for (String uid : Commit.uids()) {
+                    File commitFile = objectFile(Commit.COMMIT_FOLDER, uid);
+                    Commit commit = readObject(commitFile, Commit.class);
+                    if (commit.isFlat()) {
+                        commit.buildTree();
+                        writeObjectAtomically(commitFile, commit);
+                    }
+                }
+            }
+            case 8 -> MessageIndex.build();
+            default -> throw error("Unknown repository version %d.", version);
+        }
+        Repository.reload();
+    }
+
+    /** Save every blob again under the UID of its content alone, and rewrite
+     *  the file references of the commits and of the staging area to match.
+     *  Blobs of the same content, formerly saved once per file name, are saved once.
+     *  Each step can be run again if gitlet is interrupted: blobs already saved
+     *  under their new UID hash to that UID again, and the old pack and the old
+     *  files are only removed once nothing refers to them anymore.
+     */
+    @SuppressWarnings("unchecked")
+    private static void identifyBlobsByContent() {
+        File repackFolder = join(BlobArea.BLOB_FOLDER, "repack");
+        repackFolder.mkdir();
+        Pack repack = new Pack(repackFolder);
+        HashMap<String, String> uids = new HashMap<>();
+        HashMap<String, String> latestByName = new HashMap<>();
+        ArrayList<File> oldFiles = new ArrayList<>();
+
+        CommitGraph graph = Commit.GRAPH;
+        for (int pos = 0; pos < graph.size(); pos += 1) {
+            File commitFile = objectFile(Commit.COMMIT_FOLDER, graph.uid(pos));
+            Commit commit = readObject(commitFile, Commit.class);
+            for (Map.Entry<String, String> file : commit.getFiles().entrySet()) {
+                String fileName = file.getKey();
+                String uid = uids.get(file.getValue());
+                if (uid == null) {
+                    uid = resave(file.getValue(), repack, latestByName.get(fileName), oldFiles);
+                    uids.put(file.getValue(), uid);
+                }
+                latestByName.put(fileName, uid);
+            }
+            commit.replaceFileReferences(uids);
+            writeObjectAtomically(commitFile, commit);
+        }
+
+        File additionFolder = StagingArea.AdditionArea.ADDITION_FOLDER;
+        TreeMap<String, String> additionMap =
+                readObject(StagingArea.AdditionArea.ADDITIONMAP, TreeMap.class);
+        for (Map.Entry<String, String> file : additionMap.entrySet()) {
+            File blobFile = join(additionFolder, file.getValue());
+            if (!blobFile.exists()) {
+                continue;
+            }
+            Blob blob = Blob.read(blobFile);
+            String uid = blob.rehash();
+            File target = join(additionFolder, uid);
+            if (!target.exists()) {
+                writeObjectAtomically(target, blob);
+            }
+            if (!target.equals(blobFile)) {
+                oldFiles.add(blobFile);
+            }
+            file.setValue(uid);
+        }
+        writeObjectAtomically(StagingArea.AdditionArea.ADDITIONMAP, additionMap);
+
+        BlobArea.PACK.replaceWith(repack);
+        repackFolder.delete();
+        for (File file : oldFiles) {
+            file.delete();
+        }
+        StatCache.STATCACHE.delete();
+    }
+
+    /** Save the blob with uid "oldUID" under the UID of its content, and return it.
+     *  Small blobs are written into REPACK, as a delta against the blob with
+     *  uid "baseUID" if it is worth it; large blobs are saved as separate files,
+     *  the old ones being added to OLDFILES. */
+    private static String resave(String oldUID, Pack repack, String baseUID, List<File> oldFiles) {
+        byte[] data = BlobArea.PACK.read(oldUID);
+        if (data == null) {
+            data = repack.read(oldUID);
+        }
+        Blob blob;
+        File oldFile = objectFile(BlobArea.BLOB_FOLDER, oldUID);
+        if (data != null) {
+            blob = Codec.decode(data, Blob.class);
+        } else {
+            blob = Blob.read(oldFile);
+        }
+        String uid = blob.rehash();
+        if (blob.isLarge()) {
+            File target = objectFile(BlobArea.BLOB_FOLDER, uid);
+            if (!target.exists()) {
+                target.getParentFile().mkdir();
+                writeObjectAtomically(target, blob);
+            }
+        } else {
+            repack.write(uid, Codec.encode(blob), baseUID);
+        }
+        if (oldFile.exists() && !oldUID.equals(uid)) {
+            oldFiles.add(oldFile);
+        }
+        return uid;
+    }
+
+    /** Rewrite the object of type EXPECTEDCLASS saved in FILE in the binary format. */
+    private static <T extends Serializable> void reencode(File file, Class<T> expectedClass) {
+        writeObjectAtomically(file, readObject(file, expectedClass));
+    }
+
+    /** Move every flat object file of FOLDER into its prefix sub-folder. */
+    private static void fanOut(File folder) {
+        for (String uid : plainFilenamesIn(folder)) {
+            if (uid.length() != UID_LENGTH) {
+                continue;
+            }
+            File target = objectFile(folder, uid);
+            target.getParentFile().mkdir();
+            join(folder, uid).renameTo(target);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/** A cache of the objects loaded from the repository, keyed by their UID.
+ *  Since objects never change once saved, a cached object stays valid for as long
+ *  as the process lives, which lets a daemon keep it across commands.
+ *  The cache is bounded by the total weight of its objects, roughly their size
+ *  in bytes, and evicts the least recently used objects first.
+ *  It counts its hits and misses, which Main reports when GITLET_TIMING is set.
+ *  May be used by several threads at once.
+ *
+ *  @author Shawn
+ */
+class ObjectCache<V> {
+
+    private final String name;
+    private final long capacity;
+    private final ToLongFunction<V> weigher;
+    /** The cached objects, from the least to the most recently used. */
+    private final LinkedHashMap<String, V> objects = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private long hits;
+    private long misses;
+
+    /** Construct a cache named NAME holding objects of total weight at most CAPACITY,
+     *  the weight of an object being given by WEIGHER. */
+    ObjectCache(String name, long capacity, ToLongFunction<V> weigher) {
+        this.name = name;
+        this.capacity = capacity;
+        this.weigher = weigher;
+    }
+
+    /** Return the object with the given uid, or null if it isn't cached. */
+    synchronized V get(String uid) {
+        V value = objects.get(uid);
+        if (value == null) {
+            misses += 1;
+        } else {
+            hits += 1;
+        }
+        return value;
+    }
+
+    /** Return the object with the given uid, loading it with LOADER if it isn't cached.
+     *  The object is loaded outside the lock, so two threads may load it at once. */
+    V get(String uid, Function<String, V> loader) {
+        V value = get(uid);
+        if (value == null) {
+            value = loader.apply(uid);
+            if (value != null) {
+                put(uid, value);
+            }
+        }
+        return value;
+    }
+
+    /** Cache VALUE as the object with the given uid, unless it is heavier than the cache. */
+    synchronized void put(String uid, V value) {
+        long w = weigher.applyAsLong(value);
+        if (w > capacity) {
+            return;
+        }
+        V old = objects.put(uid, value);
+        if (old != null) {
+            weight -= weigher.applyAsLong(old);
+        }
+        weight += w;
+        Iterator<Map.Entry<String, V>> eldest = objects.entrySet().iterator();
+        while (weight > capacity) {
+            weight -= weigher.applyAsLong(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+
+    /** Remove all the objects from the cache. */
+    synchronized void clear() {
+        objects.clear();
+        weight = 0;
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s cache: %d hits, %d misses, %d objects (%d KiB)",
+                name, hits, misses, objects.size(), weight >> 10);
+    }
+}
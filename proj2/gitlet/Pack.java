@@ -0,0 +1,421 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+
+import static gitlet.Utils.*;
+
+/** Represents a pack: a single append-only file holding many objects,
+ *  plus an index file mapping the UID of every object to its offset in the pack.
+ *  An object is either stored in full or as a delta against another object
+ *  of the pack (its base), which is found by offset when the object is read.
+ *  Objects may be read by several threads at once.
+ *
+ *  PACK archive:
+ *    header  -- "PACK", version (int)
+ *    records -- type (byte), length (int), [offset of the base (long)], payload
+ *               or DEFLATED (byte), length (int), length once inflated (int), payload
+ *
+ *  Objects stored in full are compressed with zlib, as DEFLATED records,
+ *  if they are at least Codec.COMPRESSION_THRESHOLD bytes long and it makes them smaller.
+ *  Deltas are always small, so they are stored as they are.
+ *
+ *  PACKINDEX archive:
+ *    header  -- "PIDX", version (int)
+ *    records -- UID (20 bytes), offset (long), delta depth (byte)
+ *
+ *  @author Shawn
+ */
+class Pack {
+
+    private static final int VERSION = 1;
+    private static final byte[] PACK_MAGIC = {'P', 'A', 'C', 'K'};
+    private static final byte[] INDEX_MAGIC = {'P', 'I', 'D', 'X'};
+    private static final int HEADER_SIZE = 8;
+    private static final int INDEX_RECORD_SIZE = 29;
+
+    private static final byte FULL = 0;
+    private static final byte DELTA = 1;
+    private static final byte DEFLATED = 2;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    /** Longest chain of deltas an object may be stored at the end of. */
+    static final int MAX_DELTA_DEPTH = 16;
+
+    private final File packFile;
+    private final File indexFile;
+    /** Lazily loaded index of the pack. */
+    private HashMap<String, Entry> entries;
+    /** The length of the part of the index file loaded into the entries. */
+    private long indexLength;
+    private FileChannel channel;
+    /** Whether objects were appended since the pack was last forced onto the disk. */
+    private boolean unsynced;
+
+    /** The location of an object in the pack. */
+    private static class Entry {
+        private final long offset;
+        private final int depth;
+        /** The number of the object in the index, from 0. */
+        private final int position;
+
+        Entry(long offset, int depth, int position) {
+            this.offset = offset;
+            this.depth = depth;
+            this.position = position;
+        }
+    }
+
+    /** A pack stored in FOLDER. The pack files are created on the first write. */
+    Pack(File folder) {
+        packFile = join(folder, "PACK");
+        indexFile = join(folder, "PACKINDEX");
+    }
+
+    /** Return whether the pack contains the object with the given uid. */
+    boolean contains(String uid) {
+        return index().containsKey(uid);
+    }
+
+    /** Return the UIDs of all the objects in the pack. */
+    Set<String> uids() {
+        return index().keySet();
+    }
+
+    /** Return the number of objects in the pack. */
+    int size() {
+        return index().size();
+    }
+
+    /** Return the number of the object with the given uid in the index,
+     *  from 0 to size() - 1, or -1 if the pack doesn't contain it. */
+    int position(String uid) {
+        Entry entry = index().get(uid);
+        return entry == null ? -1 : entry.position;
+    }
+
+    /** Return the content of the object with the given uid, or null if
+     *  the pack doesn't contain it. */
+    byte[] read(String uid) {
+        Entry entry = index().get(uid);
+        if (entry == null) {
+            return null;
+        }
+        return read(entry.offset);
+    }
+
+    /** Append the object DATA with the given uid to the pack.
+     *  If BASEUID is in the pack and DATA is a small revision of it,
+     *  DATA is stored as a delta against it.
+     */
+    synchronized void write(String uid, byte[] data, String baseUID) {
+        if (contains(uid)) {
+            return;
+        }
+        write(List.of(uid), List.of(data), Collections.singletonList(baseUID));
+    }
+
+    /** Append the objects DATA with the given UIDS to the pack, each as a delta against
+     *  the object of the uid at the same index of BASEUIDS, if it is in the pack (or
+     *  earlier in DATA) and it is worth it.
+     *  Several processes may append to the pack at once: the records and their index
+     *  records are appended under a single lock of the pack file, after loading the index
+     *  records the other processes appended, so that no object is appended twice.
+     *  The index records of all the objects are appended at once, after their records.
+     */
+    synchronized void write(List<String> uids, List<byte[]> data, List<String> baseUIDs) {
+        try {
+            FileChannel ch = channel();
+            FileLock lock = ch.lock();
+            try {
+                loadAppended();
+                ByteArrayOutputStream indexRecords = new ByteArrayOutputStream();
+                DataOutputStream index = new DataOutputStream(indexRecords);
+                for (int i = 0; i < uids.size(); i += 1) {
+                    String uid = uids.get(i);
+                    if (entries.containsKey(uid)) {
+                        continue;
+                    }
+                    long offset = ch.size();
+                    String baseUID = baseUIDs.get(i);
+                    int depth = append(ch, offset, data.get(i), baseUID == null ? null : entries.get(baseUID));
+                    index.write(toBytes(uid));
+                    index.writeLong(offset);
+                    index.writeByte(depth);
+                    entries.put(uid, new Entry(offset, depth, entries.size()));
+                }
+                if (indexRecords.size() == 0) {
+                    return;
+                }
+                boolean newIndex = !indexFile.exists();
+                try (DataOutputStream out = new DataOutputStream(new FileOutputStream(indexFile, true))) {
+                    if (newIndex) {
+                        out.write(INDEX_MAGIC);
+                        out.writeInt(VERSION);
+                    }
+                    indexRecords.writeTo(out);
+                }
+                indexLength = indexFile.length();
+                unsynced = true;
+            } finally {
+                lock.release();
+            }
+        } catch (IOException excp) {
+            throw error("Cannot write to the pack: %s", excp.getMessage());
+        }
+    }
+
+    /** Write the record of the object DATA at OFFSET, the end of the pack CH, as a delta
+     *  against BASE if it isn't null and DATA is a small revision of it, and return the
+     *  length of the chain of deltas the object is at the end of. */
+    private int append(FileChannel ch, long offset, byte[] data, Entry base) throws IOException {
+        byte[] delta = null;
+        if (base != null && base.depth < MAX_DELTA_DEPTH) {
+            delta = Delta.create(read(base.offset), data);
+            if (delta.length >= data.length / 2) {
+                delta = null;
+            }
+        }
+        int depth;
+        ByteBuffer record;
+        byte[] deflated = null;
+        if (delta == null && data.length >= Codec.COMPRESSION_THRESHOLD) {
+            deflated = Codec.deflate(data);
+        }
+        if (deflated != null) {
+            depth = 0;
+            record = ByteBuffer.allocate(9 + deflated.length);
+            record.put(DEFLATED).putInt(deflated.length).putInt(data.length).put(deflated);
+        } else if (delta == null) {
+            depth = 0;
+            record = ByteBuffer.allocate(5 + data.length);
+            record.put(FULL).putInt(data.length).put(data);
+        } else {
+            depth = base.depth + 1;
+            record = ByteBuffer.allocate(13 + delta.length);
+            record.put(DELTA).putInt(delta.length).putLong(base.offset).put(delta);
+        }
+        record.flip();
+        while (record.hasRemaining()) {
+            ch.write(record, offset + record.position());
+        }
+        return depth;
+    }
+
+    /** Cut the index record left half written at the end of the index file by a process
+     *  which crashed while appending it, under the lock of the pack, so that the next
+     *  record is appended right after the last whole one. Return whether anything was cut. */
+    synchronized boolean repair() {
+        if (!isTorn()) {
+            return false;
+        }
+        try {
+            FileChannel ch = channel();
+            FileLock lock = ch.lock();
+            try {
+                if (!isTorn()) {
+                    return false;
+                }
+                long length = wholeLength(indexFile.length());
+                if (length == 0) {
+                    indexFile.delete();
+                } else {
+                    try (FileChannel index = FileChannel.open(indexFile.toPath(), StandardOpenOption.WRITE)) {
+                        index.truncate(length);
+                    }
+                }
+            } finally {
+                lock.release();
+            }
+        } catch (IOException excp) {
+            throw error("Cannot repair the pack index: %s", excp.getMessage());
+        }
+        entries = null;
+        indexLength = 0;
+        return true;
+    }
+
+    /** Return whether the index file ends with a record half written. */
+    private boolean isTorn() {
+        return indexFile.exists() && wholeLength(indexFile.length()) != indexFile.length();
+    }
+
+    /** Return the length of the header and the whole records of an index file
+     *  LENGTH bytes long, or 0 if even the header is incomplete. */
+    private static long wholeLength(long length) {
+        if (length < HEADER_SIZE) {
+            return 0;
+        }
+        return HEADER_SIZE + (length - HEADER_SIZE) / INDEX_RECORD_SIZE * INDEX_RECORD_SIZE;
+    }
+
+    File getIndexFile() {
+        return indexFile;
+    }
+
+    /** Force the objects appended since the last call onto the disk, the pack before
+     *  its index, and return the number of files forced. */
+    synchronized int sync() {
+        if (!unsynced) {
+            return 0;
+        }
+        try (FileChannel index = FileChannel.open(indexFile.toPath(), StandardOpenOption.WRITE)) {
+            channel().force(false);
+            index.force(false);
+        } catch (IOException excp) {
+            throw error("Cannot sync the pack: %s", excp.getMessage());
+        }
+        unsynced = false;
+        return 2;
+    }
+
+    /** Return the files of the pack, the index last. */
+    List<File> files() {
+        return List.of(packFile, indexFile);
+    }
+
+    /** Replace the files of this pack by the files of the pack OTHER, which is left empty,
+     *  both at once through the journal. */
+    synchronized void replaceWith(Pack other) {
+        other.close();
+        close();
+        Journal.LOCAL.replaceFiles(files(), other.files());
+    }
+
+    /** Close the pack file and forget the index, which are opened again when needed. */
+    synchronized void close() {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException excp) {
+            throw error("Cannot close the pack: %s", excp.getMessage());
+        }
+        channel = null;
+        entries = null;
+        indexLength = 0;
+    }
+
+    /** Return the content of the object stored at OFFSET, applying deltas if needed. */
+    private byte[] read(long offset) {
+        ByteBuffer header = readFully(offset, 13);
+        byte type = header.get();
+        int length = header.getInt();
+        if (type == FULL) {
+            return readFully(offset + 5, length).array();
+        } else if (type == DEFLATED) {
+            int size = header.getInt();
+            try {
+                return Codec.inflate(readFully(offset + 9, length).array(), 0, length, size);
+            } catch (DataFormatException excp) {
+                throw error("Corrupt pack record at offset %d.", offset);
+            }
+        } else if (type == DELTA) {
+            long baseOffset = header.getLong();
+            byte[] delta = readFully(offset + 13, length).array();
+            return Delta.apply(read(baseOffset), delta);
+        } else {
+            throw error("Corrupt pack record at offset %d.", offset);
+        }
+    }
+
+    /** Read LENGTH bytes of the pack starting at POSITION, or fewer at the end of the pack. */
+    private ByteBuffer readFully(long position, int length) {
+        try {
+            FileChannel ch = channel();
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, ch.size() - position));
+            while (buffer.hasRemaining()) {
+                if (ch.read(buffer, position + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            return buffer;
+        } catch (IOException excp) {
+            throw error("Cannot read the pack: %s", excp.getMessage());
+        }
+    }
+
+    private synchronized FileChannel channel() throws IOException {
+        if (channel == null) {
+            boolean newPack = !packFile.exists();
+            channel = FileChannel.open(packFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (newPack) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.put(PACK_MAGIC).putInt(VERSION).flip();
+                channel.write(header, 0);
+            }
+        }
+        return channel;
+    }
+
+    /** Return the index of the pack, loading it from the index file if needed. */
+    private synchronized HashMap<String, Entry> index() {
+        if (entries == null) {
+            entries = new HashMap<>();
+            indexLength = HEADER_SIZE;
+            loadAppended();
+        }
+        return entries;
+    }
+
+    /** Load the index records appended to the index file since it was loaded,
+     *  ignoring a record still being written. */
+    private synchronized void loadAppended() {
+        if (!indexFile.exists() || indexFile.length() - indexLength < INDEX_RECORD_SIZE) {
+            return;
+        }
+        try (FileChannel index = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            long records = (index.size() - indexLength) / INDEX_RECORD_SIZE;
+            ByteBuffer buffer = ByteBuffer.allocate((int) (records * INDEX_RECORD_SIZE));
+            while (buffer.hasRemaining()) {
+                if (index.read(buffer, indexLength + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            byte[] uid = new byte[20];
+            while (buffer.remaining() >= INDEX_RECORD_SIZE) {
+                buffer.get(uid);
+                long offset = buffer.getLong();
+                int depth = buffer.get();
+                entries.putIfAbsent(toHex(uid), new Entry(offset, depth, entries.size()));
+                indexLength += INDEX_RECORD_SIZE;
+            }
+        } catch (IOException excp) {
+            throw error("Cannot read the pack index: %s", excp.getMessage());
+        }
+    }
+
+    /** Return the 20 bytes represented by the hexadecimal UID. */
+    static byte[] toBytes(String uid) {
+        byte[] bytes = new byte[uid.length() / 2];
+        for (int i = 0; i < bytes.length; i += 1) {
+            bytes[i] = (byte) ((Character.digit(uid.charAt(2 * i), 16) << 4)
+                    | Character.digit(uid.charAt(2 * i + 1), 16));
+        }
+        return bytes;
+    }
+
+    /** Return the hexadecimal numeral of the UID represented by BYTES. */
+    static String toHex(byte[] bytes) {
+        char[] s = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i += 1) {
+            s[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            s[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(s);
+    }
+}
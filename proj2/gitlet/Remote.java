@@ -0,0 +1,298 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/** An abstraction of the remotes of the repository represented by the REMOTE_FOLDER:
+ *  other gitlet repositories on the file system, which branches are fetched from and pushed to.
+ *  Because we don't need to instantiate any Remote objects,
+ *  so all the methods in this class are static methods.
+ *
+ *  Every remote is a file named after the remote, holding the path to its .gitlet directory.
+ *  REMOTE_FOLDER archive:
+ *  --remotes/
+ *       |--origin   (../origin/.gitlet)
+ *
+ *  A transfer copies the commits the receiving side doesn't have, in three steps:
+ *    negotiate -- walk the commit graph of the sending side back from the wanted commit,
+ *                 stopping at every commit the receiving side already has.
+ *    objects   -- walk the trees of the missing commits, skipping every tree the receiving
+ *                 side already has, since it then has all the trees and blobs below it.
+ *                 The missing blobs are appended to the pack of the receiving side in a
+ *                 single stream, each as a delta against the previous version of its file
+ *                 when it is worth it; the trees are written children first.
+ *    commits   -- write the missing commits, parents first, and add them to the commit graph
+ *                 and the message index of the receiving side.
+ *  The objects and the entries of the message index are made durable through the journal
+ *  of the receiving side, with the pack and the commit graph, before its branches move.
+ *  So the cost of a transfer is proportional to the new history, not to the whole history.
+ *
+ *  @author Shawn
+ */
+public class Remote {
+
+    static final File REMOTE_FOLDER = join(Repository.GITLET_DIR, "remotes");
+
+    /** The folders, indexes and journal of a repository taking part in a transfer. */
+    private static class Store {
+        private final File dir;
+        private final CommitGraph graph;
+        private final Pack pack;
+        private final Journal journal;
+
+        Store(File dir, CommitGraph graph, Pack pack, Journal journal) {
+            this.dir = dir;
+            this.graph = graph;
+            this.pack = pack;
+            this.journal = journal;
+        }
+
+        /** The repository in the current working directory. */
+        static Store local() {
+            return new Store(Repository.GITLET_DIR, Commit.GRAPH, BlobArea.PACK, Journal.LOCAL);
+        }
+
+        File folder(String name) {
+            return join(dir, name);
+        }
+    }
+
+    /** Save the remote named "remoteName", whose .gitlet directory is at PATH,
+     *  written with forward slashes. */
+    static void add(String remoteName, String path) {
+        File remoteFile = join(REMOTE_FOLDER, remoteName);
+        if (remoteFile.exists()) {
+            throw error("A remote with that name already exists.");
+        }
+        REMOTE_FOLDER.mkdir();
+        writeContents(remoteFile, path.replace("/", File.separator));
+    }
+
+    /** Remove the remote named "remoteName". */
+    static void remove(String remoteName) {
+        File remoteFile = join(REMOTE_FOLDER, remoteName);
+        if (!remoteFile.isFile()) {
+            throw error("A remote with that name does not exist.");
+        }
+        remoteFile.delete();
+    }
+
+    /** Copy the commits of the branch "branchName" of the remote which the repository doesn't
+     *  have, and point the branch "remoteName/branchName" at the head of the remote branch. */
+    static void fetch(String remoteName, String branchName) {
+        Store remote = open(remoteName);
+        try {
+            File branchFile = join(remote.folder("branches"), branchName);
+            if (!branchFile.isFile()) {
+                throw error("That remote does not have that branch.");
+            }
+            String tipUID = readContentsAsString(branchFile);
+            transfer(remote, Store.local(), tipUID);
+            new Branch(tipUID, remoteName + "/" + branchName).save();
+        } finally {
+            remote.pack.close();
+        }
+    }
+
+    /** Append the commits of the current branch to the branch "branchName" of the remote,
+     *  which must be in the history of the head commit, and reset the remote branch to the
+     *  head commit. The branch is created if the remote doesn't have it.
+     *  The remote is locked for the whole push, like a command run in it: a command
+     *  interrupted in it is recovered first, and the references are updated through
+     *  its journal once the objects are durable, the same way a commit does. */
+    static void push(String remoteName, String branchName) {
+        Store remote = open(remoteName);
+        FileChannel lock = RepositoryLock.lock(remote.dir);
+        try {
+            remote.journal.recover();
+            String headUID = Head.get();
+            File branchFile = join(remote.folder("branches"), branchName);
+            if (branchFile.isFile() && !isAncestor(readContentsAsString(branchFile), headUID)) {
+                throw error("Please pull down remote changes before pushing.");
+            }
+            transfer(Store.local(), remote, headUID);
+            remote.journal.write(branchFile, headUID);
+            if (branchName.equals(readContentsAsString(remote.folder("BRANCH")))) {
+                remote.journal.write(remote.folder("HEAD"), headUID);
+            }
+            remote.journal.commit();
+        } finally {
+            remote.journal.discard();
+            RepositoryLock.unlock(lock);
+            remote.pack.close();
+        }
+    }
+
+    /** Fetch the branch "branchName" of the remote, then merge it into the current branch.
+     *  The fetch is committed first, so that the fetched commits and the remote branch
+     *  are kept even if the merge fails. */
+    static void pull(String remoteName, String branchName) {
+        fetch(remoteName, branchName);
+        Journal.LOCAL.commit();
+        Repository.merge(remoteName + "/" + branchName);
+    }
+
+    /** Return the store of the remote named "remoteName", which must exist
+     *  and be in the current format. */
+    private static Store open(String remoteName) {
+        File remoteFile = join(REMOTE_FOLDER, remoteName);
+        if (!remoteFile.isFile()) {
+            throw error("A remote with that name does not exist.");
+        }
+        File dir = new File(readContentsAsString(remoteFile));
+        if (!dir.isAbsolute()) {
+            dir = join(Repository.CWD, dir.getPath());
+        }
+        if (!join(dir, "HEAD").isFile()) {
+            throw error("Remote directory not found.");
+        }
+        File version = join(dir, Migration.VERSION.getName());
+        if (!version.isFile()
+                || Integer.parseInt(readContentsAsString(version).trim()) != Migration.CURRENT_VERSION) {
+            throw error("Remote repository is in another format; run a gitlet command in it first.");
+        }
+        CommitGraph graph = new CommitGraph(dir);
+        Pack pack = new Pack(join(dir, "blobs"));
+        return new Store(dir, graph, pack, new Journal(dir, pack, graph));
+    }
+
+    /** Return whether the commit "ancestorUID" is the commit "commitUID" or one of its ancestors,
+     *  only walking the commits whose generation is above the generation of the ancestor. */
+    private static boolean isAncestor(String ancestorUID, String commitUID) {
+        CommitGraph graph = Commit.GRAPH;
+        int target = graph.position(ancestorUID);
+        if (target == CommitGraph.NONE) {
+            return false;
+        }
+        int generation = graph.generation(target);
+        BitSet visited = new BitSet(graph.size());
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        stack.push(graph.position(commitUID));
+        while (!stack.isEmpty()) {
+            int pos = stack.pop();
+            if (pos == target) {
+                return true;
+            } else if (pos == CommitGraph.NONE || visited.get(pos) || graph.generation(pos) <= generation) {
+                continue;
+            }
+            visited.set(pos);
+            stack.push(graph.firstParent(pos));
+            stack.push(graph.secondParent(pos));
+        }
+        return false;
+    }
+
+    /** Copy into TO the commits of FROM reachable from the commit "tipUID" which TO
+     *  doesn't have, with their trees and blobs. */
+    private static void transfer(Store from, Store to, String tipUID) {
+        BitSet wanted = new BitSet(from.graph.size());
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        stack.push(from.graph.position(tipUID));
+        while (!stack.isEmpty()) {
+            int pos = stack.pop();
+            if (pos == CommitGraph.NONE || wanted.get(pos) || to.graph.contains(from.graph.uid(pos))) {
+                continue;
+            }
+            wanted.set(pos);
+            stack.push(from.graph.firstParent(pos));
+            stack.push(from.graph.secondParent(pos));
+        }
+
+        File fromCommits = from.folder("commits");
+        List<Commit> commits = new ArrayList<>();
+        HashSet<String> trees = new HashSet<>();
+        HashMap<String, String> latestByName = new HashMap<>();
+        for (int pos = wanted.nextSetBit(0); pos >= 0; pos = wanted.nextSetBit(pos + 1)) {
+            Commit commit = readObject(objectFile(fromCommits, from.graph.uid(pos)), Commit.class);
+            commits.add(commit);
+            copyTree(from, to, commit.getTree(), trees, latestByName);
+        }
+
+        File toCommits = to.folder("commits");
+        File toMessages = to.folder("messages");
+        for (Commit commit : commits) {
+            copy(to, objectFile(fromCommits, commit.getUid()), objectFile(toCommits, commit.getUid()));
+            to.graph.add(commit);
+            MessageIndex.add(to.journal, toMessages, commit.getMessage(), commit.getUid());
+        }
+    }
+
+    /** Copy into TO the trees of the trie "treeUID" of FROM which TO doesn't have,
+     *  children first, and their blobs, unless they were already copied into TREES. */
+    private static void copyTree(Store from, Store to, String treeUID, HashSet<String> trees,
+                                 HashMap<String, String> latestByName) {
+        File fromTrees = from.folder("trees");
+        File toTrees = to.folder("trees");
+        List<String> missing = new ArrayList<>();
+        ArrayDeque<String> stack = new ArrayDeque<>();
+        stack.push(treeUID);
+        while (!stack.isEmpty()) {
+            String uid = stack.pop();
+            if (uid == null || !trees.add(uid) || objectFile(toTrees, uid).exists()) {
+                continue;
+            }
+            missing.add(uid);
+            Tree tree = readObject(objectFile(fromTrees, uid), Tree.class);
+            if (tree.getEntries() == null) {
+                for (String child : tree.getChildren()) {
+                    stack.push(child);
+                }
+                continue;
+            }
+            for (Map.Entry<String, String> file : tree.getEntries().entrySet()) {
+                copyBlob(from, to, file.getValue(), latestByName.get(file.getKey()));
+                latestByName.put(file.getKey(), file.getValue());
+            }
+        }
+        for (int i = missing.size() - 1; i >= 0; i -= 1) {
+            copy(to, objectFile(fromTrees, missing.get(i)), objectFile(toTrees, missing.get(i)));
+        }
+    }
+
+    /** Copy the blob with uid "blobUID" of FROM into TO if TO doesn't have it, as a delta
+     *  against the blob with uid "baseUID" if it is worth it. */
+    private static void copyBlob(Store from, Store to, String blobUID, String baseUID) {
+        File toBlob = objectFile(to.folder("blobs"), blobUID);
+        if (to.pack.contains(blobUID) || toBlob.isFile()) {
+            return;
+        }
+        byte[] data = from.pack.read(blobUID);
+        if (data != null) {
+            to.pack.write(blobUID, data, baseUID);
+        } else {
+            copyLarge(objectFile(from.folder("blobs"), blobUID), toBlob);
+            to.journal.sync(toBlob);
+        }
+    }
+
+    /** Copy the large blob file SOURCE to TARGET as a stream, by an atomic rename,
+     *  creating its folder if needed, so that the blob is never held in memory. */
+    private static void copyLarge(File source, File target) {
+        target.getParentFile().mkdir();
+        try {
+            Path temp = Files.createTempFile(target.getParentFile().toPath(), "." + target.getName(), ".tmp");
+            Files.copy(source.toPath(), temp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp, target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw error("Cannot copy blob %s: %s", target.getName(), excp.getMessage());
+        }
+    }
+
+    /** Copy the object file SOURCE to TARGET, an object of TO, through the journal of TO. */
+    private static void copy(Store to, File source, File target) {
+        to.journal.saveObject(target, readContents(source));
+    }
+}
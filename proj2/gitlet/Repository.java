@@ -1,8 +1,11 @@
 package gitlet;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
@@ -14,10 +17,18 @@ import static gitlet.Utils.*;
  *  .gitlet/ -- top level folder for all persistent
  *      - staging/ -- folder containing all of the persistent data in staging area
  *      - commits/ -- folder containing all of the persistent data for commits
+ *      - trees/ -- folder containing the tree objects holding the files of the commits
  *      - blobs/ -- folder containing all of the persistent data for blobs
  *      - branches/ -- folder containing all of the persistent data for references to commit
+ *      - remotes/ -- folder containing the paths to the remote repositories
  *      - BRANCH -- file containing the reference to the current branch
  *      - HEAD -- file containing the reference to the current commit
+ *      - VERSION -- file containing the version of the format of the repository
+ *      - COMMITGRAPH, COMMITMESSAGES -- files containing the commit graph
+ *      - BLOOMINDEX, BLOOMDATA -- files containing the changed-path filters of the commits
+ *      - JOURNAL -- file containing the updates of the last command, written ahead of them
+ *      - messages/ -- folder containing the index of the commits by message
+ *      - gc/ -- folder the gc command writes the new commit graph and pack into
  *
  *  @author Shawn
  */
@@ -30,12 +41,14 @@ public class Repository {
 
     static void setupPersistence() {
         if (GITLET_DIR.exists()) {
-            message("A Gitlet version-control system already exists in the current directory.");
-            System.exit(0);
+            throw error("A Gitlet version-control system already exists in the current directory.");
         } else {
             GITLET_DIR.mkdir();
             StagingArea.init();
             Commit.COMMIT_FOLDER.mkdir();
+            Tree.init();
+            MessageIndex.init();
+            Migration.init();
             BlobArea.init();
             Branch.BRANCH_FOLDER.mkdir();
 
@@ -49,11 +62,25 @@ public class Repository {
         }
     }
 
+    /** Forget everything read from the repository and kept in memory -- the references,
+     *  the staging area, the stat cache, the object caches, the pack index and the
+     *  commit graph -- so that it is read again from the files when needed. */
+    static void reload() {
+        Head.reload();
+        Branch.reload();
+        StagingArea.reload();
+        StatCache.reload();
+        Commit.CACHE.clear();
+        Tree.CACHE.clear();
+        BlobArea.CACHE.clear();
+        BlobArea.PACK.close();
+        Commit.GRAPH.close();
+    }
+
     /** Save a new branch named 'branchName' which points to the head commit. */
     static void saveBranch(String branchName) {
         if (Branch.contains(branchName)) {
-            message("A branch with that name already exists.");
-            System.exit(0);
+            throw error("A branch with that name already exists.");
         } else {
             Branch newBranch = new Branch(Head.get(), branchName);
             newBranch.save();
@@ -62,34 +89,74 @@ public class Repository {
 
     static void removeBranch(String branchName) {
         if (!Branch.contains(branchName)) {
-            message("A branch with that name does not exist.");
-            System.exit(0);
+            throw error("A branch with that name does not exist.");
         } else if (Branch.get().equals(branchName)) {
-            message("Cannot remove the current branch.");
-            System.exit(0);
+            throw error("Cannot remove the current branch.");
         } else {
             Branch.remove(branchName);
         }
     }
 
-    static void stagedForAddition(String fileName) {
-        File file = join(CWD, fileName);
-        if (!file.exists()) {
-            message("File does not exist.");
-            System.exit(0);
-        } else {
-            Blob blob = new Blob(file);
-            Commit commit = Head.load();
-            if (StagingArea.RemovalArea.contains(file.getName())) {
-                StagingArea.RemovalArea.remove(file.getName());
-            }
-            if (commit.containsFile(blob.getFileName())
-                    && commit.getFileReference(blob.getFileName()).equals(blob.getUid())) {
-                StagingArea.AdditionArea.remove(blob.getFileName());
+    /** Stage the files named FILENAMES for addition. A directory which is the working
+     *  directory itself, such as ".", stands for all the working files; gitlet only
+     *  tracks the files at the top of the working directory.
+     *  The files are hashed in parallel, the blobs which aren't saved yet are appended
+     *  to the pack in one batch, from the contents read to hash them, and the staging
+     *  area is written once, by Main.
+     */
+    static void stagedForAddition(String... fileNames) {
+        TreeSet<String> names = new TreeSet<>();
+        for (String fileName : fileNames) {
+            File file = join(CWD, fileName);
+            if (file.isDirectory()) {
+                if (!isWorkingDirectory(file)) {
+                    throw error("Only the files of the working directory can be added.");
+                }
+                names.addAll(plainFilenamesIn(CWD));
+            } else if (!file.isFile()) {
+                throw error("File does not exist.");
+            } else if (!isWorkingDirectory(file.getParentFile())) {
+                throw error("Only the files of the working directory can be added.");
             } else {
-                StagingArea.AdditionArea.add(blob);
+                names.add(file.getName());
             }
         }
+        String[] nameArray = names.toArray(new String[0]);
+        Blob[] blobs = new Blob[nameArray.length];
+        String[] uids = StatCache.uids(nameArray, blobs);
+        List<Blob> newBlobs = new ArrayList<>();
+        List<String> baseUIDs = new ArrayList<>();
+        Commit commit = Head.load();
+        for (int i = 0; i < nameArray.length; i += 1) {
+            String fileName = nameArray[i];
+            String uid = uids[i];
+            if (StagingArea.RemovalArea.contains(fileName)) {
+                StagingArea.RemovalArea.remove(fileName);
+            }
+            String headUID = commit.getFileReference(fileName);
+            if (uid.equals(headUID)) {
+                StagingArea.AdditionArea.remove(fileName);
+            } else if (!uid.equals(StagingArea.AdditionArea.getMap().get(fileName))) {
+                if (BlobArea.contains(uid)) {
+                    StagingArea.AdditionArea.add(fileName, uid);
+                } else {
+                    Blob blob = blobs[i] != null ? blobs[i] : new Blob(join(CWD, fileName));
+                    if (blob.isLarge()) {
+                        StagingArea.AdditionArea.add(blob);
+                    } else {
+                        newBlobs.add(blob);
+                        baseUIDs.add(headUID);
+                        StagingArea.AdditionArea.add(fileName, blob.getUid());
+                    }
+                }
+            }
+        }
+        BlobArea.save(newBlobs, baseUIDs);
+    }
+
+    /** Return whether DIR is the working directory. */
+    private static boolean isWorkingDirectory(File dir) {
+        return dir.getAbsoluteFile().toPath().normalize().equals(CWD.getAbsoluteFile().toPath().normalize());
     }
 
     static void stagedForRemoval(String fileName) {
@@ -101,67 +168,98 @@ public class Repository {
             StagingArea.RemovalArea.add(file.getName());
             restrictedDelete(file);
         } else {
-            message("No reason to remove the file.");
-            System.exit(0);
+            throw error("No reason to remove the file.");
         }
     }
 
     static void commit(String commitMessage) {
         if (StagingArea.isEmpty()) {
-            message("No changes added to the commit.");
-            System.exit(0);
+            throw error("No changes added to the commit.");
         } else if (commitMessage.isBlank()) {
-            message("Please enter a commit message.");
-            System.exit(0);
+            throw error("Please enter a commit message.");
         } else {
             Commit commit = new Commit(Head.load(), commitMessage);
             commit.save();
             StagingArea.AdditionArea.moveToBlobs();
             StagingArea.clear();
+            Branch.update(Head.get(), commit.getUid());
             Head.set(commit.getUid());
-            Branch.update(commit.getUid());
         }
     }
 
+    /** Print the history of the head commit, read from the commit graph. */
     static void log() {
-        Commit commit = Head.load();
-        while (commit != null) {
-            System.out.print(commit.logInfo());
-            commit = commit.getParentCommit();
+        CommitGraph graph = Commit.GRAPH;
+        int pos = graph.position(Head.get());
+        while (pos != CommitGraph.NONE) {
+            System.out.print(graph.logInfo(pos));
+            pos = graph.firstParent(pos);
+        }
+    }
+
+    /** Print the history of the head commit, keeping only the commits which changed the file
+     *  named "fileName" compared with their first parent. The changed-path filters let most
+     *  commits be skipped without loading them; the others are checked against their parent.
+     */
+    static void log(String fileName) {
+        CommitGraph graph = Commit.GRAPH;
+        ChangedPaths filters = ChangedPaths.open();
+        int walked = 0;
+        int skipped = 0;
+        int pos = graph.position(Head.get());
+        while (pos != CommitGraph.NONE) {
+            int parent = graph.firstParent(pos);
+            walked += 1;
+            if (!filters.mayHaveChanged(pos, fileName)) {
+                skipped += 1;
+            } else {
+                String before = parent == CommitGraph.NONE
+                        ? null : Commit.load(graph.uid(parent)).getFileReference(fileName);
+                String after = Commit.load(graph.uid(pos)).getFileReference(fileName);
+                if (!Objects.equals(before, after)) {
+                    System.out.print(graph.logInfo(pos));
+                }
+            }
+            pos = parent;
+        }
+        if (System.getenv("GITLET_TIMING") != null) {
+            System.err.printf("log: %d commits walked, %d skipped by the filters%n", walked, skipped);
         }
     }
 
     static void globalLog() {
-        List<String> commits = plainFilenamesIn(Commit.COMMIT_FOLDER);
-        for (String commitUID : commits) {
-            File commitFile = join(Commit.COMMIT_FOLDER, commitUID);
-            Commit commit = readObject(commitFile, Commit.class);
-            System.out.print(commit.logInfo());
+        CommitGraph graph = Commit.GRAPH;
+        for (int pos = 0; pos < graph.size(); pos += 1) {
+            System.out.print(graph.logInfo(pos));
         }
     }
 
     static void find(String message) {
-        boolean exists = false;
-        List<String> commits = plainFilenamesIn(Commit.COMMIT_FOLDER);
-        for (String commitUID : commits) {
-            File commitFile = join(Commit.COMMIT_FOLDER, commitUID);
-            Commit commit = readObject(commitFile, Commit.class);
-            if (commit.getMessage().equals(message)) {
-                exists = true;
-                System.out.println(commitUID);
-            }
+        List<String> uids = MessageIndex.find(message);
+        if (uids.isEmpty()) {
+            throw error("Found no commit with that message.");
         }
-        if (!exists) {
-            message("Found no commit with that message.");
+        for (String uid : uids) {
+            System.out.println(uid);
+        }
+    }
+
+    /** Print the ids of the commits whose message has the words of TEXT in a row,
+     *  ignoring case, punctuation and spacing. */
+    static void findContaining(String text) {
+        List<String> uids = MessageIndex.findContaining(text);
+        if (uids.isEmpty()) {
+            throw error("Found no commit with that message.");
+        }
+        for (String uid : uids) {
+            System.out.println(uid);
         }
     }
 
     static void status() {
         System.out.println("=== Branches ===");
         String currentBranch = Branch.get();
-        List<String> branches = plainFilenamesIn(Branch.BRANCH_FOLDER);
-        branches.sort(String::compareTo);
-        for (String branchName : branches) {
+        for (String branchName : Branch.names()) {
             if (branchName.equals(currentBranch)) {
                 System.out.print("*");
             }
@@ -183,64 +281,186 @@ public class Repository {
         }
         System.out.println();
 
+        StatusScan scan = new StatusScan();
         System.out.println("=== Modifications Not Staged For Commit ===");
+        for (String modification : scan.getModifiedFiles()) {
+            System.out.println(modification);
+        }
         System.out.println();
 
         System.out.println("=== Untracked Files ===");
+        for (String fileName : scan.getUntrackedFiles()) {
+            System.out.println(fileName);
+        }
         System.out.println();
     }
 
+    /** Print the differences between the working files and the staging area,
+     *  for the tracked files which aren't staged for removal.
+     */
+    static void diff() {
+        TreeMap<String, String> index = new TreeMap<>(Head.load().getFiles());
+        index.putAll(StagingArea.AdditionArea.getMap());
+        index.keySet().removeAll(StagingArea.RemovalArea.getSet());
+        for (Map.Entry<String, String> file : index.entrySet()) {
+            File workingFile = join(CWD, file.getKey());
+            String uid = StatCache.uid(workingFile);
+            if (uid == null) {
+                printChange(file.getKey(), file.getValue(), null);
+            } else if (!uid.equals(file.getValue())) {
+                printChange(file.getKey(), StagingArea.AdditionArea.load(file.getValue()), new Blob(workingFile));
+            }
+        }
+    }
+
+    /** Print the differences between the head commit and the staging area. */
+    static void diffCached() {
+        Commit head = Head.load();
+        TreeMap<String, String> changes = new TreeMap<>(StagingArea.AdditionArea.getMap());
+        for (String fileName : StagingArea.RemovalArea.getSet()) {
+            changes.put(fileName, null);
+        }
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String before = head.getFileReference(change.getKey());
+            if (!Objects.equals(before, change.getValue())) {
+                printChange(change.getKey(), before, change.getValue());
+            }
+        }
+    }
+
+    /** Print the differences between the commits with uids "commitUID1" and "commitUID2",
+     *  which may be abbreviated. Only the parts of their trees which differ are compared.
+     */
+    static void diff(String commitUID1, String commitUID2) {
+        Commit commit1 = Commit.load(commitUID1);
+        Commit commit2 = Commit.load(commitUID2);
+        if (commit1 == null || commit2 == null) {
+            throw error("No commit with that id exists.");
+        }
+        TreeMap<String, String> before = new TreeMap<>();
+        TreeMap<String, String> after = new TreeMap<>();
+        if (commit1.isFlat() || commit2.isFlat()) {
+            before.putAll(commit1.getFiles());
+            after.putAll(commit2.getFiles());
+        } else {
+            Tree.diff(commit1.getTree(), commit2.getTree(), before, after);
+        }
+        TreeSet<String> fileNames = new TreeSet<>(before.keySet());
+        fileNames.addAll(after.keySet());
+        for (String fileName : fileNames) {
+            if (!Objects.equals(before.get(fileName), after.get(fileName))) {
+                printChange(fileName, before.get(fileName), after.get(fileName));
+            }
+        }
+    }
+
+    /** Print the differences between the blobs with uids "beforeUID" and "afterUID"
+     *  of the file named "fileName", either of which is null if the file doesn't exist.
+     */
+    private static void printChange(String fileName, String beforeUID, String afterUID) {
+        printChange(fileName,
+                beforeUID == null ? null : StagingArea.AdditionArea.load(beforeUID),
+                afterUID == null ? null : StagingArea.AdditionArea.load(afterUID));
+    }
+
+    /** Print the differences between the versions BEFORE and AFTER of the file named
+     *  "fileName", either of which is null if the file doesn't exist. Large and binary
+     *  versions are only reported to differ, without being read as text. */
+    private static void printChange(String fileName, Blob before, Blob after) {
+        if ((before != null && before.isBinary()) || (after != null && after.isBinary())) {
+            Diff.printBinary(fileName, before != null, after != null);
+        } else {
+            Diff.printUnified(fileName, before == null ? null : before.getFileContent(),
+                    after == null ? null : after.getFileContent());
+        }
+    }
+
     static void checkoutFileInCommit(String commitUID, String fileName) {
         Commit commit = Commit.load(commitUID);
         if (commit == null) {
-            message("No commit with that id exists.");
-            System.exit(0);
+            throw error("No commit with that id exists.");
         } else if (!commit.containsFile(fileName)) {
-            message("File does not exist in that commit.");
-            System.exit(0);
+            throw error("File does not exist in that commit.");
         } else {
             File file = join(CWD, fileName);
-            String fileContent = commit.getFileContent(fileName);
-            writeContents(file, fileContent);
+            Blob blob = BlobArea.load(commit.getFileReference(fileName));
+            blob.writeTo(file);
+            StatCache.record(file, blob.getUid());
         }
     }
 
+    /** Return the working files neither tracked by the head commit nor staged for addition. */
     static List<String> untrackedFiles() {
         Commit commit = Head.load();
+        TreeMap<String, String> additionMap = StagingArea.AdditionArea.getMap();
         LinkedList<String> untrackedFiles = new LinkedList<>();
         for (String fileName : plainFilenamesIn(CWD)) {
             if (!commit.containsFile(fileName)
-                    && !StagingArea.AdditionArea.contains(fileName)) {
+                    && !additionMap.containsKey(fileName)) {
                 untrackedFiles.add(fileName);
             }
         }
         return untrackedFiles;
     }
 
-    static void clearCWD() {
+    /** Make the working directory match the commit "target", the head commit being "current".
+     *  Only the files of the parts of the trees of the two commits which differ, the
+     *  staged files and the working files modified since they were last hashed, which
+     *  the stat cache tells from their metadata, are looked at, so the blobs read and
+     *  written follow the size of the change rather than the size of the repository;
+     *  the full file maps are only compared for flat commits. Of these files, the ones
+     *  whose version differs between the two commits, or whose working version was
+     *  modified, are written, and the ones not tracked by "target" are deleted.
+     */
+    static void checkoutCommit(Commit current, Commit target) {
+        TreeMap<String, String> before = new TreeMap<>();
+        TreeMap<String, String> after = new TreeMap<>();
+        if (current.isFlat() || target.isFlat()) {
+            before.putAll(current.getFiles());
+            after.putAll(target.getFiles());
+        } else {
+            Tree.diff(current.getTree(), target.getTree(), before, after);
+        }
+        TreeSet<String> fileNames = new TreeSet<>(before.keySet());
+        fileNames.addAll(after.keySet());
+        TreeSet<String> stagedFiles = new TreeSet<>(StagingArea.AdditionArea.getMap().keySet());
+        stagedFiles.addAll(StagingArea.RemovalArea.getSet());
+        fileNames.addAll(stagedFiles);
         for (String fileName : plainFilenamesIn(CWD)) {
-            File file = join(CWD, fileName);
-            restrictedDelete(file);
+            if (!fileNames.contains(fileName)) {
+                String currentRef = current.getFileReference(fileName);
+                if (currentRef != null && !currentRef.equals(StatCache.uid(join(CWD, fileName)))) {
+                    fileNames.add(fileName);
+                }
+            }
+        }
+
+        CheckoutWriter writer = new CheckoutWriter();
+        for (String fileName : fileNames) {
+            boolean compared = before.containsKey(fileName) || after.containsKey(fileName);
+            String currentRef = compared ? before.get(fileName) : current.getFileReference(fileName);
+            String targetRef = compared ? after.get(fileName) : target.getFileReference(fileName);
+            if (targetRef == null) {
+                restrictedDelete(join(CWD, fileName));
+                StatCache.remove(fileName);
+            } else if (!targetRef.equals(currentRef) || !targetRef.equals(StatCache.uid(join(CWD, fileName)))) {
+                writer.add(fileName, targetRef);
+            }
         }
+        writer.run();
     }
 
     static void checkoutBranch(String branchName) {
         if (!Branch.contains(branchName)) {
-            message("No such branch exists.");
-            System.exit(0);
+            throw error("No such branch exists.");
         } else if (Branch.get().equals(branchName)) {
-            message("No need to checkout the current branch.");
-            System.exit(0);
+            throw error("No need to checkout the current branch.");
         } else if (!untrackedFiles().isEmpty()) {
-            message("There is an untracked file in the way; "
+            throw error("There is an untracked file in the way; "
                     + "delete it, or add and commit it first.");
-            System.exit(0);
         } else {
             Commit commit = Branch.load(branchName);
-            clearCWD();
-            for (String fileName : commit.getFiles().keySet()) {
-                checkoutFileInCommit(commit.getUid(), fileName);
-            }
+            checkoutCommit(Head.load(), commit);
             StagingArea.clear();
             Branch.set(branchName);
             Head.set(commit.getUid());
@@ -250,61 +470,98 @@ public class Repository {
     static void reset(String commitUID) {
         Commit commit = Commit.load(commitUID);
         if (commit == null) {
-            message("No commit with that id exists.");
-            System.exit(0);
+            throw error("No commit with that id exists.");
         } else if (!untrackedFiles().isEmpty()) {
-            message("There is an untracked file in the way; "
+            throw error("There is an untracked file in the way; "
                     + "delete it, or add and commit it first.");
-            System.exit(0);
         } else {
-            clearCWD();
-            for (String fileName : commit.getFiles().keySet()) {
-                checkoutFileInCommit(commit.getUid(), fileName);
-            }
+            checkoutCommit(Head.load(), commit);
             StagingArea.clear();
-            Branch.update(commitUID);
-            Head.set(commitUID);
+            Branch.update(Head.get(), commit.getUid());
+            Head.set(commit.getUid());
         }
     }
 
-    static void mergeFile(Commit currentBranch, Commit givenBranch, String fileName) {
-        message("Encountered a merge conflict.");
+    /** Merge the versions of the file named "fileName" in the current branch and the given branch,
+     *  which were changed differently since the split point, into the working directory and
+     *  stage the result. If the file is in all three commits, the changes are merged line by line
+     *  and only the regions changed differently on both sides are marked as conflicts; otherwise
+     *  the whole versions of the file are marked as conflicting.
+     */
+    static void mergeFile(Commit currentBranch, Commit givenBranch, Commit splitCommit, String fileName) {
         String fileContentsInCurrentBranch = currentBranch.getFileContent(fileName);
         String fileContentsInGivenBranch = givenBranch.getFileContent(fileName);
-        String mergedFileContents = String.format("<<<<<<< HEAD\n%s=======\n%s>>>>>>>\n",
-                fileContentsInCurrentBranch, fileContentsInGivenBranch);
+        String mergedFileContents;
+        if (splitCommit.containsFile(fileName) && currentBranch.containsFile(fileName)
+                && givenBranch.containsFile(fileName)) {
+            Diff.Merge merged = Diff.merge(splitCommit.getFileContent(fileName),
+                    fileContentsInCurrentBranch, fileContentsInGivenBranch);
+            if (merged.conflicts > 0) {
+                message("Encountered a merge conflict.");
+            }
+            mergedFileContents = merged.text;
+        } else {
+            message("Encountered a merge conflict.");
+            mergedFileContents = String.format("<<<<<<< HEAD\n%s=======\n%s>>>>>>>\n",
+                    fileContentsInCurrentBranch, fileContentsInGivenBranch);
+        }
         File mergedFile = join(CWD, fileName);
         writeContents(mergedFile, mergedFileContents);
         Blob blob = new Blob(fileName, mergedFileContents);
         StagingArea.AdditionArea.add(blob);
     }
 
+    /** Print the uid of the split point of the commits named by "name1" and "name2",
+     *  each of which is either a branch name or a commit uid, possibly abbreviated.
+     */
+    static void mergeBase(String name1, String name2) {
+        String uid1 = resolveCommit(name1);
+        String uid2 = resolveCommit(name2);
+        String splitPoint = Commit.findSplitPoint(uid1, uid2);
+        if (splitPoint == null) {
+            throw error("The commits have no common ancestor.");
+        }
+        System.out.println(splitPoint);
+    }
+
+    /** Return the uid of the commit at the head of the branch named NAME, if there is one,
+     *  or else of the commit whose uid starts with NAME. */
+    private static String resolveCommit(String name) {
+        String uid = Branch.contains(name) ? Branch.reference(name) : Commit.resolve(name);
+        if (uid == null) {
+            throw error("No commit with that id exists.");
+        }
+        return uid;
+    }
+
+    /** Merge the branch named "branchName" into the current branch.
+     *  "branchName" may also be the uid of a commit, possibly abbreviated.
+     */
     static void merge(String branchName) {
         if (!StagingArea.isEmpty()) {
-            message("You have uncommitted changes.");
-            System.exit(0);
-        } else if (!Branch.contains(branchName)) {
-            message("A branch with that name does not exist.");
-            System.exit(0);
+            throw error("You have uncommitted changes.");
+        } else if (!Branch.contains(branchName) && Commit.load(branchName) == null) {
+            throw error("A branch with that name does not exist.");
         } else if (Branch.get().equals(branchName)) {
-            message("Cannot merge a branch with itself.");
-            System.exit(0);
+            throw error("Cannot merge a branch with itself.");
         } else if (!untrackedFiles().isEmpty()) {
-            message("There is an untracked file in the way; "
+            throw error("There is an untracked file in the way; "
                     + "delete it, or add and commit it first.");
-            System.exit(0);
         } else {
             Commit currentBranch = Head.load();
-            Commit givenBranch = Branch.load(branchName);
+            Commit givenBranch = Branch.contains(branchName)
+                    ? Branch.load(branchName) : Commit.load(branchName);
             String splitPoint = Commit.findSplitPoint(currentBranch.getUid(), givenBranch.getUid());
             Commit splitCommit = Commit.load(splitPoint);
             if (givenBranch.getUid().equals(splitPoint)) {
-                message("Given branch is an ancestor of the current branch.");
-                System.exit(0);
+                throw error("Given branch is an ancestor of the current branch.");
             } else if (currentBranch.getUid().equals(splitPoint)) {
-                checkoutBranch(branchName);
+                if (Branch.contains(branchName)) {
+                    checkoutBranch(branchName);
+                } else {
+                    reset(givenBranch.getUid());
+                }
                 message("Current branch fast-forwarded.");
-                System.exit(0);
             } else {
                 for (String fileName : splitCommit.getFiles().keySet()) {
                     if (currentBranch.containsFile(fileName)
@@ -312,19 +569,19 @@ public class Repository {
                         if (!givenBranch.getFileReference(fileName).equals(splitCommit.getFileReference(fileName))
                                 && currentBranch.getFileReference(fileName).equals(splitCommit.getFileReference(fileName))) {
                             checkoutFileInCommit(givenBranch.getUid(), fileName);
-                            Blob blob = new Blob(fileName, givenBranch.getFileContent(fileName));
+                            Blob blob = new Blob(join(CWD, fileName));
                             StagingArea.AdditionArea.add(blob);
                         } else if (!givenBranch.getFileReference(fileName).equals(splitCommit.getFileReference(fileName))
                                 && !currentBranch.getFileReference(fileName).equals(splitCommit.getFileReference(fileName))
                                 && !currentBranch.getFileReference(fileName).equals(givenBranch.getFileReference(fileName))) {
                             // deal with merge conflict: file exists in the given branch and the current branch but has different contents
-                            mergeFile(currentBranch, givenBranch, fileName);
+                            mergeFile(currentBranch, givenBranch, splitCommit, fileName);
                         }
                     } else if (!currentBranch.containsFile(fileName)
                             && givenBranch.containsFile(fileName)) {
                         if (!givenBranch.getFileReference(fileName).equals(splitCommit.getFileReference(fileName))) {
                             // deal with merge conflict: file only exists in the given branch and has different contents from the split point
-                            mergeFile(currentBranch, givenBranch, fileName);
+                            mergeFile(currentBranch, givenBranch, splitCommit, fileName);
                         }
                     } else if (currentBranch.containsFile(fileName)
                             && !givenBranch.containsFile(fileName)) {
@@ -332,7 +589,7 @@ public class Repository {
                             stagedForRemoval(fileName);
                         } else if (!currentBranch.getFileReference(fileName).equals(splitCommit.getFileReference(fileName))) {
                             // deal with merge conflict: file only exists in the current branch and has different contents from the split point
-                            mergeFile(currentBranch, givenBranch, fileName);
+                            mergeFile(currentBranch, givenBranch, splitCommit, fileName);
                         }
                     }
                 }
@@ -341,11 +598,11 @@ public class Repository {
                     if (!splitCommit.containsFile(fileName)) {
                         if (!currentBranch.containsFile(fileName)) {
                             checkoutFileInCommit(givenBranch.getUid(), fileName);
-                            Blob blob = new Blob(fileName, givenBranch.getFileContent(fileName));
+                            Blob blob = new Blob(join(CWD, fileName));
                             StagingArea.AdditionArea.add(blob);
                         } else if (!currentBranch.getFileReference(fileName).equals(givenBranch.getFileReference(fileName))) {
                             // deal with merge conflict: file exists in the given branch and the current branch but has different contents
-                            mergeFile(currentBranch, givenBranch, fileName);
+                            mergeFile(currentBranch, givenBranch, splitCommit, fileName);
                         }
                     }
                 }
@@ -355,7 +612,7 @@ public class Repository {
                         if (givenBranch.containsFile(fileName)
                                 && !currentBranch.getFileReference(fileName).equals(givenBranch.getFileReference(fileName))) {
                             // deal with merge conflict: file exists in the given branch and the current branch but has different contents
-                            mergeFile(currentBranch, givenBranch, fileName);
+                            mergeFile(currentBranch, givenBranch, splitCommit, fileName);
                         }
                     }
                 }
@@ -365,8 +622,8 @@ public class Repository {
                 commit.save();
                 StagingArea.AdditionArea.moveToBlobs();
                 StagingArea.clear();
+                Branch.update(currentBranch.getUid(), commit.getUid());
                 Head.set(commit.getUid());
-                Branch.update(commit.getUid());
             }
         }
     }
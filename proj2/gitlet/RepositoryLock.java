@@ -0,0 +1,96 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/** An abstraction of the lock of the repository represented by the LOCK file,
+ *  which serializes the gitlet processes updating the same repository.
+ *  Because we don't need to instantiate any RepositoryLock objects,
+ *  so all the methods in this class are static methods.
+ *
+ *  The lock guards the files updated through the journal (HEAD, BRANCH, the branches
+ *  and the staging area), the journal itself, and the indexes appended to by commits
+ *  (the commit graph, the message index and the changed-path filters).
+ *  A command which updates the repository takes the lock before reading any of them
+ *  and keeps it until its journal is applied, so that two commands never both update
+ *  the staging area or a branch from the same old value.
+ *  Objects are named after their content, so they are written without the lock:
+ *  loose objects by an atomic rename, and pack records under a short lock of the pack.
+ *
+ *  The lock is an operating system lock on LOCK, not the existence of the file,
+ *  so it is released when the process holding it exits, even if it crashed.
+ *
+ *  @author Shawn
+ */
+class RepositoryLock {
+
+    static final File LOCK = join(Repository.GITLET_DIR, "LOCK");
+
+    /** How long to wait for another command to release the lock. */
+    private static final long TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+    private static final long RETRY_MILLIS = 10;
+
+    /** The lock of the repository held by this process, or null. */
+    private static FileChannel held;
+
+    /** Take the lock of the repository if this process doesn't hold it yet,
+     *  waiting for the command holding it to finish. */
+    static void acquire() {
+        if (held == null) {
+            held = lock(Repository.GITLET_DIR);
+        }
+    }
+
+    /** Return whether this process holds the lock of the repository. */
+    static boolean isHeld() {
+        return held != null;
+    }
+
+    /** Release the lock of the repository if this process holds it. */
+    static void release() {
+        if (held != null) {
+            unlock(held);
+            held = null;
+        }
+    }
+
+    /** Take the lock of the repository whose .gitlet directory is DIR, waiting for
+     *  the command holding it to finish, and return the channel holding the lock. */
+    static FileChannel lock(File dir) {
+        long deadline = System.nanoTime() + TIMEOUT;
+        try {
+            FileChannel channel = FileChannel.open(join(dir, LOCK.getName()).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            while (true) {
+                FileLock lock = channel.tryLock();
+                if (lock != null) {
+                    return channel;
+                } else if (System.nanoTime() > deadline) {
+                    channel.close();
+                    throw error("Another gitlet command is updating the repository; try again later.");
+                }
+                Thread.sleep(RETRY_MILLIS);
+            }
+        } catch (IOException excp) {
+            throw error("Cannot lock the repository: %s", excp.getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("Interrupted while waiting for the repository lock.");
+        }
+    }
+
+    /** Release the lock held by CHANNEL, returned by lock. */
+    static void unlock(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException excp) {
+            throw error("Cannot unlock the repository: %s", excp.getMessage());
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.File;
+import java.util.HashSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
@@ -10,6 +11,12 @@ import static gitlet.Utils.*;
  *  Because we don't need to instantiate any BlobArea objects,
  *  so all the methods in this class are static methods.
  *
+ *  The addition map and the removal set are loaded once per command and
+ *  modified in memory; flush writes them back through the journal at the end
+ *  of the command. The blobs staged for addition are written as soon as they
+ *  are added, but the blobs which are no longer staged are only deleted by the
+ *  journal, once the new addition map has been written.
+ *
  *  @author Shawn
  */
 public class StagingArea {
@@ -24,11 +31,8 @@ public class StagingArea {
 
     /** Clear all the things saved in the staging area and reinitialize. */
     static void clear() {
-        for (String blobUID : plainFilenamesIn(AdditionArea.ADDITION_FOLDER)) {
-            File blobFile = join(AdditionArea.ADDITION_FOLDER, blobUID);
-            blobFile.delete();
-        }
-        init();
+        AdditionArea.clear();
+        RemovalArea.clear();
     }
 
     /** Return whether the staging area is empty. */
@@ -36,6 +40,18 @@ public class StagingArea {
         return AdditionArea.isEmpty() && RemovalArea.isEmpty();
     }
 
+    /** Forget the staging area kept in memory, so that it is read again. */
+    static void reload() {
+        AdditionArea.reload();
+        RemovalArea.reload();
+    }
+
+    /** Write the staging area back into the STAGING_FOLDER through the journal if it changed. */
+    static void flush() {
+        AdditionArea.flush();
+        RemovalArea.flush();
+    }
+
     /** An abstraction of the staging area for addition represented by the ADDITION_FOLDER.
      *  Because we don't need to instantiate any BlobArea objects,
      *  so all the methods in this class are static methods.
@@ -45,60 +61,117 @@ public class StagingArea {
         /** Addition map saves the map between the file name and the UID of the file. */
         static final File ADDITIONMAP = join(ADDITION_FOLDER, "ADDITIONMAP");
 
+        /** The addition map, loaded on first use. */
+        private static TreeMap<String, String> additionMap;
+        private static boolean changed;
+        /** UIDs of the blobs to delete once the addition map is written. */
+        private static TreeSet<String> unstagedBlobs = new TreeSet<>();
+
         /** Initialize the staging area for addition. */
         static void init() {
             ADDITION_FOLDER.mkdirs();
-            TreeMap<String, String> additionMap = new TreeMap<>();
-            writeObject(ADDITIONMAP, additionMap);
+            additionMap = new TreeMap<>();
+            changed = true;
+        }
+
+        /** Unstage all the files. */
+        static void clear() {
+            unstagedBlobs.addAll(getMap().values());
+            getMap().clear();
+            changed = true;
         }
 
+        @SuppressWarnings("unchecked")
         static TreeMap<String, String> getMap() {
-            return readObject(ADDITIONMAP, TreeMap.class);
+            if (additionMap == null) {
+                additionMap = readObject(ADDITIONMAP, TreeMap.class);
+            }
+            return additionMap;
         }
 
         /** Return whether the staging area for addition contains the file with name "fileName". */
         static boolean contains(String fileName) {
-            TreeMap<String, String> additionMap = getMap();
-            return additionMap.containsKey(fileName);
+            return getMap().containsKey(fileName);
         }
 
         /** Return whether the staging area for addition is empty. */
         static boolean isEmpty() {
-            TreeMap<String, String> additionMap = getMap();
-            return additionMap.isEmpty();
+            return getMap().isEmpty();
         }
 
         /** Add the blob into the staging area for addition. */
         static void add(Blob blob) {
-            TreeMap<String, String> additionMap = getMap();
-            if (additionMap.containsKey(blob.getFileName())) {
-                remove(blob.getFileName());
-            }
-            additionMap.put(blob.getFileName(), blob.getUid());
-            writeObject(ADDITIONMAP, additionMap);
+            add(blob.getFileName(), blob.getUid());
             File blobFile = join(ADDITION_FOLDER, blob.getUid());
-            writeObject(blobFile, blob);
+            if (!blobFile.exists()) {
+                writeObject(blobFile, blob);
+                Journal.LOCAL.sync(blobFile);
+            }
+        }
+
+        /** Stage the file "fileName" as the blob with uid "blobUID",
+         *  which must already be saved in the Blob folder or staged. */
+        static void add(String fileName, String blobUID) {
+            if (contains(fileName)) {
+                remove(fileName);
+            }
+            getMap().put(fileName, blobUID);
+            unstagedBlobs.remove(blobUID);
+            changed = true;
+        }
+
+        /** Load the blob with uid "blobUID", from the staging area for addition
+         *  if it is saved there, or else from the Blob folder. */
+        static Blob load(String blobUID) {
+            File blobFile = join(ADDITION_FOLDER, blobUID);
+            return blobFile.exists() ? Blob.read(blobFile) : BlobArea.load(blobUID);
         }
 
         /** Remove the file from the staging area for addition. */
         static void remove(String fileName) {
-            TreeMap<String, String> additionMap = getMap();
-            String fileUID = additionMap.remove(fileName);
-            writeObject(ADDITIONMAP, additionMap);
+            String fileUID = getMap().remove(fileName);
             if (fileUID != null) {
-                join(ADDITION_FOLDER, fileUID).delete();
+                unstagedBlobs.add(fileUID);
+                changed = true;
             }
         }
 
-        /** Move all the blobs saved in the staging area for addition into the Blob folder. */
+        /** Move all the blobs saved in the staging area for addition into the Blob folder.
+         *  Each blob is stored against the version of the file in the head commit.
+         *  Blobs already in the Blob folder aren't saved in the staging area,
+         *  and blobs staged for several files are only moved once.
+         */
         static void moveToBlobs() {
-            TreeMap<String, String> additionMap = getMap();
-            for (String fileRef : additionMap.values()) {
-                File blobFile = join(ADDITION_FOLDER, fileRef);
-                Blob blob = readObject(blobFile, Blob.class);
-                blobFile.delete();
-                BlobArea.save(blob);
+            Commit head = Head.load();
+            for (String fileName : getMap().keySet()) {
+                File blobFile = join(ADDITION_FOLDER, getMap().get(fileName));
+                if (blobFile.exists()) {
+                    BlobArea.move(blobFile, head.getFileReference(fileName));
+                }
+            }
+        }
+
+        static void reload() {
+            additionMap = null;
+            unstagedBlobs.clear();
+            changed = false;
+        }
+
+        /** Journal the addition map if it changed, and the deletion of the unstaged blobs. */
+        static void flush() {
+            if (!changed) {
+                return;
             }
+            Journal.LOCAL.writeObject(ADDITIONMAP, getMap());
+            HashSet<String> stagedBlobs = new HashSet<>(additionMap.values());
+            for (String blobUID : unstagedBlobs) {
+                File blobFile = join(ADDITION_FOLDER, blobUID);
+                if (!stagedBlobs.contains(blobUID) && blobFile.exists()) {
+                    Journal.LOCAL.delete(blobFile);
+                }
+            }
+            unstagedBlobs.clear();
+            changed = false;
         }
     }
 
@@ -110,40 +183,61 @@ public class StagingArea {
         /** Removal set saves all the files waiting to be removed from the commit. */
         static final File REMOVALSET = join(STAGING_FOLDER, "REMOVALSET");
 
+        /** The removal set, loaded on first use. */
+        private static TreeSet<String> removalSet;
+        private static boolean changed;
+
         /** Initialize the staging area for removal. */
         static void init() {
-            TreeSet<String> removalSet = new TreeSet<>();
-            writeObject(REMOVALSET, removalSet);
+            removalSet = new TreeSet<>();
+            changed = true;
         }
 
+        /** Unstage all the files. */
+        static void clear() {
+            getSet().clear();
+            changed = true;
+        }
+
+        @SuppressWarnings("unchecked")
         static TreeSet<String> getSet() {
-            return readObject(REMOVALSET, TreeSet.class);
+            if (removalSet == null) {
+                removalSet = readObject(REMOVALSET, TreeSet.class);
+            }
+            return removalSet;
         }
 
         /** Return whether the staging area for removal contains the file with name "fileName". */
         static boolean contains(String fileName) {
-            TreeSet<String> removalSet = getSet();
-            return removalSet.contains(fileName);
+            return getSet().contains(fileName);
         }
 
         /** Return whether the staging area for removal is empty. */
         static boolean isEmpty() {
-            TreeSet<String> removalSet = getSet();
-            return removalSet.isEmpty();
+            return getSet().isEmpty();
         }
 
         /** Add the file into the staging area for removal. */
         static void add(String fileName) {
-            TreeSet<String> removalSet = getSet();
-            removalSet.add(fileName);
-            writeObject(REMOVALSET, removalSet);
+            changed |= getSet().add(fileName);
         }
 
         /** Remove the file from the staging area for removal. */
         static void remove(String fileName) {
-            TreeSet<String> removalSet = getSet();
-            removalSet.remove(fileName);
-            writeObject(REMOVALSET, removalSet);
+            changed |= getSet().remove(fileName);
+        }
+
+        static void reload() {
+            removalSet = null;
+            changed = false;
+        }
+
+        /** Journal the removal set if it changed. */
+        static void flush() {
+            if (changed) {
+                Journal.LOCAL.writeObject(REMOVALSET, getSet());
+                changed = false;
+            }
         }
     }
 }
@@ -0,0 +1,241 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/** An abstraction of the stat cache represented by the file STATCACHE.
+ *  For every working file whose blob UID has been computed, the cache records
+ *  its size, modification time and file key (the inode on Unix) next to the UID,
+ *  so that the file is only hashed again once its metadata changes.
+ *  Because we don't need to instantiate any StatCache objects,
+ *  so all the methods in this class are static methods.
+ *
+ *  A file modified shortly before it was hashed may be modified again without
+ *  its metadata changing, so such "racy" entries are not trusted until the
+ *  file is hashed again later.
+ *
+ *  STATCACHE archive:
+ *    header  -- "STAT", version (int)
+ *    entries -- file name, size (long), modification time in nanoseconds (long),
+ *               file key, time it was hashed in nanoseconds (long), UID
+ *
+ *  @author Shawn
+ */
+public class StatCache {
+
+    static final File STATCACHE = join(Repository.GITLET_DIR, "STATCACHE");
+
+    private static final int VERSION = 1;
+    private static final byte[] MAGIC = {'S', 'T', 'A', 'T'};
+    /** Number of files below which a hashing task isn't split any further. */
+    private static final int THRESHOLD = 32;
+    /** Entries of files modified less than this long before being hashed are racy. */
+    private static final long RACY_WINDOW = TimeUnit.SECONDS.toNanos(2);
+
+    private static HashMap<String, Entry> entries;
+    private static boolean changed;
+
+    /** The metadata and the blob UID of a working file. */
+    private static class Entry {
+        private final long size;
+        private final long modified;
+        private final String fileKey;
+        private final long hashed;
+        private final String uid;
+
+        Entry(long size, long modified, String fileKey, long hashed, String uid) {
+            this.size = size;
+            this.modified = modified;
+            this.fileKey = fileKey;
+            this.hashed = hashed;
+            this.uid = uid;
+        }
+
+        /** Return whether this entry still describes a file with the metadata ATTRS. */
+        boolean matches(BasicFileAttributes attrs) {
+            return size == attrs.size()
+                    && modified == attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS)
+                    && fileKey.equals(String.valueOf(attrs.fileKey()))
+                    && modified + RACY_WINDOW < hashed;
+        }
+    }
+
+    /** Return the UID of the blob of the working file FILE, or null if it doesn't exist.
+     *  The file is only hashed if its metadata changed since it was last hashed.
+     *  May be called by several threads at once, files being hashed concurrently.
+     */
+    static String uid(File file) {
+        return uid(file, null, 0);
+    }
+
+    /** Return the UID of the blob of the working file FILE, as uid does, keeping
+     *  in BLOBS[I], if BLOBS isn't null, the blob the file was hashed into if the
+     *  Blob folder doesn't have it yet. */
+    private static String uid(File file, Blob[] blobs, int i) {
+        BasicFileAttributes attrs = attributes(file);
+        if (attrs == null) {
+            return null;
+        }
+        Entry entry = lookup(file.getName());
+        if (entry != null && entry.matches(attrs)) {
+            return entry.uid;
+        }
+        Blob blob = new Blob(file);
+        String uid = blob.getUid();
+        record(file.getName(), attrs, uid);
+        if (blobs != null && !BlobArea.contains(uid)) {
+            blobs[i] = blob;
+        }
+        return uid;
+    }
+
+    /** Return the UIDs of the blobs of the working files NAMES, null for the files which
+     *  don't exist, hashing the files whose metadata changed split across all cores. */
+    static String[] uids(String[] names) {
+        return uids(names, null);
+    }
+
+    /** Return the UIDs of the blobs of the working files NAMES, as uids does, keeping in
+     *  BLOBS, if it isn't null, the blobs which were hashed and aren't saved yet, so that
+     *  their content doesn't have to be read again to save them. */
+    static String[] uids(String[] names, Blob[] blobs) {
+        String[] uids = new String[names.length];
+        ForkJoinPool.commonPool().invoke(new HashTask(names, uids, blobs, 0, names.length));
+        return uids;
+    }
+
+    /** Record that the working file FILE has just been written with the blob of the given uid. */
+    static void record(File file, String uid) {
+        BasicFileAttributes attrs = attributes(file);
+        if (attrs != null) {
+            record(file.getName(), attrs, uid);
+        }
+    }
+
+    /** Forget the working file named "fileName". */
+    static synchronized void remove(String fileName) {
+        if (entries().remove(fileName) != null) {
+            changed = true;
+        }
+    }
+
+    /** Write the cache into STATCACHE if it changed, by an atomic rename. */
+    static synchronized void save() {
+        if (!changed) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            Codec.writeInt(out, entries.size());
+            for (String fileName : entries.keySet()) {
+                Entry entry = entries.get(fileName);
+                Codec.writeString(out, fileName);
+                out.writeLong(entry.size);
+                out.writeLong(entry.modified);
+                Codec.writeString(out, entry.fileKey);
+                out.writeLong(entry.hashed);
+                Codec.writeUid(out, entry.uid);
+            }
+        } catch (IOException excp) {
+            throw error("Cannot write the stat cache: %s", excp.getMessage());
+        }
+        writeContentsAtomically(STATCACHE, bytes.toByteArray());
+        changed = false;
+    }
+
+    /** Forget the entries kept in memory, so that STATCACHE is read again. */
+    static synchronized void reload() {
+        entries = null;
+        changed = false;
+    }
+
+    private static synchronized Entry lookup(String fileName) {
+        return entries().get(fileName);
+    }
+
+    private static synchronized void record(String fileName, BasicFileAttributes attrs, String uid) {
+        long now = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        entries().put(fileName, new Entry(attrs.size(), attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                String.valueOf(attrs.fileKey()), now, uid));
+        changed = true;
+    }
+
+    /** Return the metadata of FILE, or null if it isn't a plain file. */
+    private static BasicFileAttributes attributes(File file) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            return attrs.isRegularFile() ? attrs : null;
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Return the entries of the cache, loading them from STATCACHE if needed.
+     *  A missing or unreadable cache is simply empty. */
+    private static HashMap<String, Entry> entries() {
+        if (entries == null) {
+            entries = new HashMap<>();
+            if (STATCACHE.exists()) {
+                try (DataInputStream in = new DataInputStream(
+                        new ByteArrayInputStream(readContents(STATCACHE)))) {
+                    in.skipBytes(MAGIC.length);
+                    if (in.readInt() == VERSION) {
+                        for (int n = Codec.readInt(in); n > 0; n -= 1) {
+                            String fileName = Codec.readString(in);
+                            entries.put(fileName, new Entry(in.readLong(), in.readLong(),
+                                    Codec.readString(in), in.readLong(), Codec.readUid(in)));
+                        }
+                    }
+                } catch (IOException excp) {
+                    entries.clear();
+                }
+            }
+        }
+        return entries;
+    }
+
+    /** Computes the blob UIDs of the working files NAMES[FROM..TO) into UIDS,
+     *  null for the files which don't exist, and the blobs not saved yet into BLOBS. */
+    private static class HashTask extends RecursiveAction {
+        private final String[] names;
+        private final String[] uids;
+        private final Blob[] blobs;
+        private final int from;
+        private final int to;
+
+        HashTask(String[] names, String[] uids, Blob[] blobs, int from, int to) {
+            this.names = names;
+            this.uids = uids;
+            this.blobs = blobs;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                for (int i = from; i < to; i += 1) {
+                    File file = Utils.join(Repository.CWD, names[i]);
+                    uids[i] = StatCache.uid(file, blobs, i);
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new HashTask(names, uids, blobs, from, mid), new HashTask(names, uids, blobs, mid, to));
+            }
+        }
+    }
+}
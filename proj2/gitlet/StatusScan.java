@@ -0,0 +1,81 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** A scan of the working tree which finds the modifications not staged for commit
+ *  and the untracked files, for the status command.
+ *  The scan runs in three phases:
+ *    list    -- list the working files and load the head commit and the staging area.
+ *    hash    -- stat every tracked working file, and hash those whose metadata changed,
+ *               split across all cores by StatCache.uids.
+ *    compare -- compare every file with the head commit and the staging area, in one pass.
+ *  If the environment variable GITLET_TIMING is set, the time spent in every phase
+ *  is reported on the standard error.
+ *
+ *  @author Shawn
+ */
+class StatusScan {
+
+    /** The tracked files whose working version differs from the expected version,
+     *  as "fileName (modified)" or "fileName (deleted)", in lexicographic order. */
+    private final List<String> modifiedFiles = new ArrayList<>();
+    /** The working files neither staged for addition nor tracked,
+     *  or staged for removal, in lexicographic order. */
+    private final List<String> untrackedFiles = new ArrayList<>();
+
+    /** Scan the current working directory. */
+    StatusScan() {
+        long start = System.nanoTime();
+        TreeSet<String> workingFiles = new TreeSet<>(plainFilenamesIn(Repository.CWD));
+        TreeMap<String, String> expected = new TreeMap<>(Head.load().getFiles());
+        expected.putAll(StagingArea.AdditionArea.getMap());
+        TreeSet<String> removalSet = StagingArea.RemovalArea.getSet();
+        long listed = System.nanoTime();
+
+        String[] names = expected.keySet().toArray(new String[0]);
+        String[] uids = StatCache.uids(names);
+        long hashed = System.nanoTime();
+
+        TreeSet<String> allFiles = new TreeSet<>(workingFiles);
+        allFiles.addAll(expected.keySet());
+        int i = 0;
+        for (String fileName : allFiles) {
+            String uid = null;
+            if (i < names.length && names[i].equals(fileName)) {
+                uid = uids[i];
+                i += 1;
+            }
+            if (removalSet.contains(fileName) || !expected.containsKey(fileName)) {
+                if (workingFiles.contains(fileName)) {
+                    untrackedFiles.add(fileName);
+                }
+            } else if (uid == null) {
+                modifiedFiles.add(fileName + " (deleted)");
+            } else if (!uid.equals(expected.get(fileName))) {
+                modifiedFiles.add(fileName + " (modified)");
+            }
+        }
+        long compared = System.nanoTime();
+
+        if (System.getenv("GITLET_TIMING") != null) {
+            System.err.printf("status: list %.3f ms (%d files), hash %.3f ms (%d tracked), "
+                            + "compare %.3f ms%n",
+                    (listed - start) / 1e6, workingFiles.size(), (hashed - listed) / 1e6,
+                    names.length, (compared - hashed) / 1e6);
+        }
+    }
+
+    List<String> getModifiedFiles() {
+        return modifiedFiles;
+    }
+
+    List<String> getUntrackedFiles() {
+        return untrackedFiles;
+    }
+}
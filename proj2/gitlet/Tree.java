@@ -0,0 +1,328 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/** Represents a gitlet tree object: a node of the file map of a commit.
+ *  The file map is a trie over the SHA1 of the file names, one hexadecimal digit
+ *  per level. A node holding at most LEAF_SIZE files is a leaf which maps the name
+ *  of every file to the UID of its blob; a larger node has up to 16 children,
+ *  the files being split by the next digit of the SHA1 of their name.
+ *  The shape of the trie only depends on the files it holds, and a node is saved
+ *  under the SHA1 of its content, so the commits share all the nodes which didn't
+ *  change: a new commit only saves the nodes on the paths to the files it changes.
+ *
+ *  Tree objects are fanned out like the commits.
+ *  TREE_FOLDER archive:
+ *  --trees/
+ *       |--1f/
+ *           |--04c9a1be0e7c5bd3f0b0bd8ea0e9b1a32ec2f1
+ *
+ *  @author Shawn
+ */
+public class Tree implements Serializable {
+
+    /** Folder that tree objects live in. */
+    static final File TREE_FOLDER = join(Repository.GITLET_DIR, "trees");
+    /** Largest number of files held by a leaf. */
+    static final int LEAF_SIZE = 64;
+    private static final int FANOUT = 16;
+    /** The tree objects loaded so far, weighed by a rough estimate of their size in bytes. */
+    static final ObjectCache<Tree> CACHE = new ObjectCache<>("tree", 8 << 20,
+            t -> t.entries == null ? 64L + 48L * FANOUT : 64L + 128L * t.entries.size());
+
+    /** The files of a leaf, or null if the node has children. */
+    private final TreeMap<String, String> entries;
+    /** The uids of the children, null where there are none. */
+    private final String[] children;
+    /** The number of files held by every child. */
+    private final int[] counts;
+    private String uid;
+
+    /** Construct a leaf holding ENTRIES. */
+    private Tree(TreeMap<String, String> entries) {
+        this.entries = entries;
+        this.children = null;
+        this.counts = null;
+    }
+
+    /** Construct a node with the given CHILDREN, which hold COUNTS files. */
+    private Tree(String[] children, int[] counts) {
+        this.entries = null;
+        this.children = children;
+        this.counts = counts;
+    }
+
+    /** Write the node in the binary format of the codec. */
+    void encode(DataOutputStream out) throws IOException {
+        out.writeBoolean(entries != null);
+        if (entries != null) {
+            Codec.writeInt(out, entries.size());
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                Codec.writeString(out, entry.getKey());
+                Codec.writeUid(out, entry.getValue());
+            }
+        } else {
+            for (int i = 0; i < FANOUT; i += 1) {
+                Codec.writeUid(out, children[i]);
+                Codec.writeInt(out, counts[i]);
+            }
+        }
+    }
+
+    /** Read a node written by encode. */
+    static Tree decode(DataInputStream in) throws IOException {
+        if (in.readBoolean()) {
+            TreeMap<String, String> entries = new TreeMap<>();
+            for (int n = Codec.readInt(in); n > 0; n -= 1) {
+                entries.put(Codec.readString(in), Codec.readUid(in));
+            }
+            return new Tree(entries);
+        }
+        String[] children = new String[FANOUT];
+        int[] counts = new int[FANOUT];
+        for (int i = 0; i < FANOUT; i += 1) {
+            children[i] = Codec.readUid(in);
+            counts[i] = Codec.readInt(in);
+        }
+        return new Tree(children, counts);
+    }
+
+    /** Return SHA1 of the content of the node.
+     *  Lazy cache.
+     */
+    String getUid() {
+        if (uid == null) {
+            uid = sha1(Codec.encode(this));
+        }
+        return uid;
+    }
+
+    /** Return the number of files held by the node. */
+    int size() {
+        if (entries != null) {
+            return entries.size();
+        }
+        int size = 0;
+        for (int count : counts) {
+            size += count;
+        }
+        return size;
+    }
+
+    /** Return the uids of the children of the node, null where there are none,
+     *  or an empty array if it is a leaf. */
+    String[] getChildren() {
+        return entries == null ? children.clone() : new String[0];
+    }
+
+    /** Return the files held by the node if it is a leaf, or null. */
+    TreeMap<String, String> getEntries() {
+        return entries;
+    }
+
+    /** Initialize the Tree folder. */
+    static void init() {
+        TREE_FOLDER.mkdir();
+    }
+
+    /** Load the tree object with the given uid. */
+    static Tree load(String treeUID) {
+        return CACHE.get(treeUID, uid -> readObject(objectFile(TREE_FOLDER, uid), Tree.class));
+    }
+
+    /** Save the tree object if it isn't saved yet, and return its uid. */
+    private static String save(Tree tree) {
+        String treeUID = tree.getUid();
+        File file = objectFile(TREE_FOLDER, treeUID);
+        if (!file.exists()) {
+            Journal.LOCAL.saveObject(file, tree);
+        }
+        CACHE.put(treeUID, tree);
+        return treeUID;
+    }
+
+    /** Save the trie holding FILES, a map from file names to blob uids,
+     *  and return the uid of its root. */
+    static String build(Map<String, String> files) {
+        return save(build(new TreeMap<>(files), 0));
+    }
+
+    /** Return the uid of the root of the trie "treeUID" once CHANGES are made to it:
+     *  every file of CHANGES is mapped to its blob uid, or removed if it maps to null.
+     *  Only the nodes on the paths to the changed files are saved. */
+    static String update(String treeUID, Map<String, String> changes) {
+        if (changes.isEmpty()) {
+            return treeUID;
+        }
+        return save(update(load(treeUID), new TreeMap<>(changes), 0));
+    }
+
+    /** Return the blob uid of the file named "fileName" in the trie "treeUID",
+     *  or null if it doesn't hold the file. */
+    static String get(String treeUID, String fileName) {
+        Tree node = load(treeUID);
+        String hash = sha1(fileName);
+        for (int depth = 0; node.entries == null; depth += 1) {
+            String child = node.children[Character.digit(hash.charAt(depth), 16)];
+            if (child == null) {
+                return null;
+            }
+            node = load(child);
+        }
+        return node.entries.get(fileName);
+    }
+
+    /** Return all the files held by the trie "treeUID", mapped to their blob uids. */
+    static TreeMap<String, String> files(String treeUID) {
+        TreeMap<String, String> files = new TreeMap<>();
+        collect(load(treeUID), files);
+        return files;
+    }
+
+    /** Return the uids of the children of the tree object "treeUID",
+     *  or an empty array if it is a leaf. */
+    static String[] children(String treeUID) {
+        return load(treeUID).getChildren();
+    }
+
+    /** Return the files held by the tree object "treeUID" if it is a leaf, or null. */
+    static TreeMap<String, String> leafFiles(String treeUID) {
+        return load(treeUID).getEntries();
+    }
+
+    /** Collect into BEFORE and AFTER the files of the parts of the tries "treeUID1" and
+     *  "treeUID2" which differ, mapped to their blob uids. Subtrees shared by both
+     *  tries are skipped, so a file is in both maps with the same uid, or in one map
+     *  only, or in both with different uids when it changed. */
+    static void diff(String treeUID1, String treeUID2,
+                     TreeMap<String, String> before, TreeMap<String, String> after) {
+        if (treeUID1 == null || treeUID2 == null) {
+            if (treeUID1 != null) {
+                collect(load(treeUID1), before);
+            } else if (treeUID2 != null) {
+                collect(load(treeUID2), after);
+            }
+            return;
+        }
+        if (treeUID1.equals(treeUID2)) {
+            return;
+        }
+        Tree node1 = load(treeUID1);
+        Tree node2 = load(treeUID2);
+        if (node1.entries != null || node2.entries != null) {
+            collect(node1, before);
+            collect(node2, after);
+            return;
+        }
+        for (int i = 0; i < FANOUT; i += 1) {
+            diff(node1.children[i], node2.children[i], before, after);
+        }
+    }
+
+    private static void collect(Tree node, TreeMap<String, String> files) {
+        if (node.entries != null) {
+            files.putAll(node.entries);
+            return;
+        }
+        for (String child : node.children) {
+            if (child != null) {
+                collect(load(child), files);
+            }
+        }
+    }
+
+    /** Return the node at DEPTH holding FILES, saving its children. */
+    private static Tree build(TreeMap<String, String> files, int depth) {
+        if (files.size() <= LEAF_SIZE || depth == UID_LENGTH) {
+            return new Tree(files);
+        }
+        List<TreeMap<String, String>> groups = split(files, depth);
+        String[] children = new String[FANOUT];
+        int[] counts = new int[FANOUT];
+        for (int i = 0; i < FANOUT; i += 1) {
+            if (!groups.get(i).isEmpty()) {
+                children[i] = save(build(groups.get(i), depth + 1));
+                counts[i] = groups.get(i).size();
+            }
+        }
+        return new Tree(children, counts);
+    }
+
+    /** Return NODE at DEPTH once CHANGES are made to it, saving the changed children. */
+    private static Tree update(Tree node, TreeMap<String, String> changes, int depth) {
+        if (node.entries != null) {
+            TreeMap<String, String> files = new TreeMap<>(node.entries);
+            apply(files, changes);
+            return build(files, depth);
+        }
+        List<TreeMap<String, String>> groups = split(changes, depth);
+        String[] children = node.children.clone();
+        int[] counts = node.counts.clone();
+        Tree[] changed = new Tree[FANOUT];
+        int size = 0;
+        for (int i = 0; i < FANOUT; i += 1) {
+            if (!groups.get(i).isEmpty()) {
+                if (children[i] == null) {
+                    TreeMap<String, String> files = new TreeMap<>();
+                    apply(files, groups.get(i));
+                    changed[i] = build(files, depth + 1);
+                } else {
+                    changed[i] = update(load(children[i]), groups.get(i), depth + 1);
+                }
+                counts[i] = changed[i].size();
+            }
+            size += counts[i];
+        }
+        if (size <= LEAF_SIZE) {
+            TreeMap<String, String> files = new TreeMap<>();
+            for (int i = 0; i < FANOUT; i += 1) {
+                if (changed[i] != null) {
+                    collect(changed[i], files);
+                } else if (children[i] != null) {
+                    collect(load(children[i]), files);
+                }
+            }
+            return new Tree(files);
+        }
+        for (int i = 0; i < FANOUT; i += 1) {
+            if (changed[i] != null) {
+                children[i] = counts[i] == 0 ? null : save(changed[i]);
+            }
+        }
+        return new Tree(children, counts);
+    }
+
+    /** Make CHANGES to FILES, removing the files which map to null. */
+    private static void apply(TreeMap<String, String> files, TreeMap<String, String> changes) {
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                files.remove(change.getKey());
+            } else {
+                files.put(change.getKey(), change.getValue());
+            }
+        }
+    }
+
+    /** Split FILES by the digit at DEPTH of the SHA1 of their names. */
+    private static List<TreeMap<String, String>> split(TreeMap<String, String> files, int depth) {
+        List<TreeMap<String, String>> groups = new ArrayList<>(FANOUT);
+        for (int i = 0; i < FANOUT; i += 1) {
+            groups.add(new TreeMap<>());
+        }
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            int digit = Character.digit(sha1(file.getKey()).charAt(depth), 16);
+            groups.get(digit).put(file.getKey(), file.getValue());
+        }
+        return groups;
+    }
+}
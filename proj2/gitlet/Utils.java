@@ -1,19 +1,22 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Formatter;
 import java.util.List;
@@ -140,21 +143,41 @@ class Utils {
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
-        try {
-            ObjectInputStream in =
-                new ObjectInputStream(new FileInputStream(file));
-            T result = expectedClass.cast(in.readObject());
-            in.close();
-            return result;
-        } catch (IOException | ClassCastException
-                 | ClassNotFoundException excp) {
+        return Codec.decode(readContents(file), expectedClass);
+    }
+
+    /** Write OBJ to FILE, in the binary format of Codec if it supports
+     *  the type of OBJ. */
+    static void writeObject(File file, Serializable obj) {
+        try (BufferedOutputStream str =
+                 new BufferedOutputStream(Files.newOutputStream(file.toPath()))) {
+            Codec.encode(obj, str);
+        } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
     }
 
-    /** Write OBJ to FILE. */
-    static void writeObject(File file, Serializable obj) {
-        writeContents(file, serialize(obj));
+    /** Write OBJ to FILE atomically: OBJ is written to a temporary file
+     *  which then replaces FILE, so that FILE always holds either its old
+     *  or its new contents. */
+    static void writeObjectAtomically(File file, Serializable obj) {
+        writeContentsAtomically(file, Codec.encode(obj));
+    }
+
+    /** Write CONTENTS to FILE atomically, like writeObjectAtomically.
+     *  The temporary file has a unique name starting with a dot, so that
+     *  several processes may write the same file at once, and listings of
+     *  objects and branches skip it. */
+    static void writeContentsAtomically(File file, byte[] contents) {
+        try {
+            Path temp = Files.createTempFile(file.getParentFile().toPath(), "." + file.getName(), ".tmp");
+            Files.write(temp, contents);
+            Files.move(temp, file.toPath(),
+                       StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 
     /* DIRECTORIES */
@@ -205,6 +228,64 @@ class Utils {
     }
 
 
+    /* OBJECT FOLDERS */
+
+    /** Return the file of the object with the given UID in FOLDER.  Objects
+     *  are fanned out into sub-folders named after the first two characters
+     *  of their UID, so that no single folder grows too large. */
+    static File objectFile(File folder, String uid) {
+        return join(folder, uid.substring(0, 2), uid.substring(2));
+    }
+
+    /** Returns a list of the UIDs of all the objects in the fanned-out
+     *  FOLDER, in lexicographic order. */
+    static List<String> objectUidsIn(File folder) {
+        ArrayList<String> uids = new ArrayList<>();
+        String[] prefixes = folder.list();
+        if (prefixes == null) {
+            return uids;
+        }
+        Arrays.sort(prefixes);
+        for (String prefix : prefixes) {
+            File subFolder = join(folder, prefix);
+            if (prefix.length() != 2 || !subFolder.isDirectory()) {
+                continue;
+            }
+            for (String rest : plainFilenamesIn(subFolder)) {
+                if (!rest.startsWith(".")) {
+                    uids.add(prefix + rest);
+                }
+            }
+        }
+        return uids;
+    }
+
+    /** Returns a list of the UIDs of all the objects in the fanned-out FOLDER
+     *  which start with PREFIX.  Only the sub-folder of PREFIX is listed.
+     *  PREFIX must be at least two characters long. */
+    static List<String> objectUidsWithPrefix(File folder, String prefix) {
+        ArrayList<String> uids = new ArrayList<>();
+        if (prefix.length() < 2 || prefix.length() > UID_LENGTH) {
+            return uids;
+        }
+        String rest = prefix.substring(2);
+        if (prefix.length() == UID_LENGTH) {
+            if (objectFile(folder, prefix).isFile()) {
+                uids.add(prefix);
+            }
+            return uids;
+        }
+        List<String> names = plainFilenamesIn(join(folder, prefix.substring(0, 2)));
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith(rest) && !name.startsWith(".")) {
+                    uids.add(prefix.substring(0, 2) + name);
+                }
+            }
+        }
+        return uids;
+    }
+
     /* SERIALIZATION UTILITIES */
 
     /** Returns a byte array containing the serialized contents of OBJ. */
@@ -220,6 +301,22 @@ class Utils {
         }
     }
 
+    /** Return an object of type T deserialized from DATA, casting it to
+     *  EXPECTEDCLASS.  Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] data,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(data));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
 
 
     /* MESSAGES AND ERROR REPORTING */